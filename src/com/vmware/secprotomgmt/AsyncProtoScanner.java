@@ -0,0 +1,481 @@
+/**
+ * Non-blocking SSL/TLS protocol scanner. Probes every protocol version
+ * on every host:port target at the same time, over a single Selector.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class AsyncProtoScanner
+{
+    // Default deadlines (in milliseconds) for establishing the connection and for receiving the ServerHello
+    static final long DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    static final long DEFAULT_READ_TIMEOUT_MS = 10000;
+
+    // Default number of probes (sockets) kept open at the same time
+    static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    // Protocol versions probed on every target, 0x0200 being SSLv2
+    private static final int[] PROBE_VERSIONS = { 0x0300, 0x0301, 0x0302, 0x0303, 0x0200 };
+
+    // Upper limit of data read from a server, before the probe is given up
+    private static final int MAX_RESPONSE_LEN = 4 * (TestSSLServer.MAX_RECORD_LEN + 5);
+
+    private final long connectTimeoutMs;
+    private final long readTimeoutMs;
+    private final int maxInFlight;
+
+    // Selector loop runs on a single thread, hence one read buffer serves all the probes
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+    // Ports on which server sends a plain text banner line, before the TLS handshake (e.g. authd)
+    private final Set<Integer> bannerPorts = new HashSet<Integer>();
+
+    /**
+     * Listener notified as soon as all the probes of a target are done
+     */
+    public interface ScanListener
+    {
+        void
+        targetScanned(InetSocketAddress isa, Set<Integer> protoVersions);
+    }
+
+    /**
+     * Result of all the probes of a target: protocol versions negotiated by the server, and how
+     * the probe of each version ended
+     */
+    static class TargetResult
+    {
+        // Protocol versions negotiated by the server, empty if it did not complete any handshake
+        final Set<Integer> protoVersions = new TreeSet<Integer>();
+
+        // Probed version -> outcome of its probe
+        final Map<Integer, TestSSLServer.ProbeOutcome> outcomes = new TreeMap<Integer, TestSSLServer.ProbeOutcome>();
+
+        // Probed version -> version the server answered with, for the probes it answered
+        final Map<Integer, Integer> answers = new TreeMap<Integer, Integer>();
+
+        /**
+         * Outcome of the target as a whole: the furthest any of its probes got, in the order
+         * of ProbeOutcome (VERSION, then ALERT, RESET, ...)
+         */
+        TestSSLServer.ProbeOutcome
+        getOutcome()
+        {
+            TestSSLServer.ProbeOutcome outcome = null;
+            for (TestSSLServer.ProbeOutcome probeOutcome : outcomes.values()) {
+                if (outcome == null || probeOutcome.ordinal() < outcome.ordinal()) {
+                    outcome = probeOutcome;
+                }
+            }
+            return outcome;
+        }
+    }
+
+    /**
+     * Constructor, with default deadlines
+     */
+    public AsyncProtoScanner()
+    {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructor
+     */
+    public AsyncProtoScanner(long connectTimeoutMs, long readTimeoutMs, int maxInFlight)
+    {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Read and skip the plain text banner line sent by the server on given port,
+     * before starting the handshake
+     */
+    public void
+    expectBannerOn(int port)
+    {
+        bannerPorts.add(port);
+    }
+
+    /**
+     * Probe all SSL/TLS protocol versions on all the targets at the same time.
+     * Returns, for each target, the protocol versions negotiated by the server and
+     * the outcome of each probe
+     */
+    public Map<InetSocketAddress, TargetResult>
+    scan(Collection<InetSocketAddress> targets) throws IOException
+    {
+        return scan(targets, null);
+    }
+
+    /**
+     * Same as scan(targets), additionally notifying the listener (if any) of every
+     * target's result as soon as it is available
+     */
+    public Map<InetSocketAddress, TargetResult>
+    scan(Collection<InetSocketAddress> targets, ScanListener listener) throws IOException
+    {
+        return scan(targets, PROBE_VERSIONS, listener);
+    }
+
+    /**
+     * Same as scan(targets, listener), probing only the given protocol versions (0x0200 being SSLv2)
+     */
+    public Map<InetSocketAddress, TargetResult>
+    scan(Collection<InetSocketAddress> targets, int[] versions, ScanListener listener) throws IOException
+    {
+        Map<InetSocketAddress, TargetResult> scanResult = new LinkedHashMap<InetSocketAddress, TargetResult>();
+        Map<InetSocketAddress, Integer> remainingProbes = new HashMap<InetSocketAddress, Integer>();
+        Deque<Probe> pendingProbes = new ArrayDeque<Probe>();
+
+        for (InetSocketAddress isa : targets) {
+            scanResult.put(isa, new TargetResult());
+            remainingProbes.put(isa, versions.length);
+            for (int version : versions) {
+                pendingProbes.add(new Probe(isa, version));
+            }
+        }
+
+        List<Probe> inFlightProbes = new ArrayList<Probe>();
+        Selector selector = Selector.open();
+        try {
+            while (!pendingProbes.isEmpty() || !inFlightProbes.isEmpty()) {
+                while (!pendingProbes.isEmpty() && inFlightProbes.size() < maxInFlight) {
+                    Probe probe = pendingProbes.poll();
+                    probe.start(selector);
+                    if (probe.done) {
+                        // Failed right away (unresolved address, connect error), no need to wait for its deadline
+                        finishProbe(probe, scanResult, remainingProbes, listener);
+                    } else {
+                        inFlightProbes.add(probe);
+                    }
+                }
+                if (inFlightProbes.isEmpty()) {
+                    continue;
+                }
+
+                // Wait till the nearest deadline, for any of the probes to make progress
+                long nextDeadline = Long.MAX_VALUE;
+                for (Probe probe : inFlightProbes) {
+                    nextDeadline = Math.min(nextDeadline, probe.deadline);
+                }
+                long waitTime = nextDeadline - System.currentTimeMillis();
+                if (waitTime > 0) {
+                    selector.select(waitTime);
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> keyItr = selector.selectedKeys().iterator();
+                while (keyItr.hasNext()) {
+                    SelectionKey key = keyItr.next();
+                    keyItr.remove();
+                    ((Probe) key.attachment()).handle(key);
+                }
+
+                // Collect finished and expired probes
+                long now = System.currentTimeMillis();
+                Iterator<Probe> probeItr = inFlightProbes.iterator();
+                while (probeItr.hasNext()) {
+                    Probe probe = probeItr.next();
+                    if (!probe.done && now >= probe.deadline) {
+                        if (!probe.connected) {
+                            System.err.println("could not connect to " + probe.isa + ": connect timed out");
+                        }
+                        probe.finish(TestSSLServer.ProbeOutcome.TIMEOUT);
+                    }
+                    if (probe.done) {
+                        probeItr.remove();
+                        finishProbe(probe, scanResult, remainingProbes, listener);
+                    }
+                }
+            }
+        } finally {
+            for (Probe probe : inFlightProbes) {
+                probe.close();
+            }
+            selector.close();
+        }
+
+        return scanResult;
+    }
+
+    /*
+     * Record the result of a finished probe, and notify the listener once all probes of its target are done
+     */
+    private static void
+    finishProbe(
+        Probe probe,
+        Map<InetSocketAddress, TargetResult> scanResult,
+        Map<InetSocketAddress, Integer> remainingProbes,
+        ScanListener listener)
+    {
+        probe.close();
+        TargetResult targetResult = scanResult.get(probe.isa);
+        targetResult.outcomes.put(probe.version, probe.outcome);
+        if (probe.negotiatedVersion > 0) {
+            targetResult.protoVersions.add(probe.negotiatedVersion);
+            targetResult.answers.put(probe.version, probe.negotiatedVersion);
+        }
+
+        int remaining = remainingProbes.get(probe.isa) - 1;
+        remainingProbes.put(probe.isa, remaining);
+        if (remaining == 0 && listener != null) {
+            listener.targetScanned(probe.isa, targetResult.protoVersions);
+        }
+    }
+
+    /**
+     * Build the bytes sent to the server to probe a protocol version: SSLv2 CLIENT-HELLO or
+     * a ClientHello wrapped in a handshake record
+     */
+    private static byte[]
+    makeProbeRequest(int version) throws IOException
+    {
+        if (version == 0x0200) {
+            return TestSSLServer.SSL2_CLIENT_HELLO.clone();
+        }
+
+        ByteArrayOutputStream requestStream = new ByteArrayOutputStream();
+        TestSSLServer.OutputRecord orec = new TestSSLServer.OutputRecord(requestStream);
+        orec.setType(TestSSLServer.HANDSHAKE);
+        orec.setVersion(version);
+        orec.write(TestSSLServer.makeClientHello(version));
+        orec.flush();
+        return requestStream.toByteArray();
+    }
+
+    /*
+     * Outcome of a probe whose connection could not be established: only a refused connection
+     * means the host is up with nothing listening on the port
+     */
+    private static TestSSLServer.ProbeOutcome
+    connectFailureOutcome(IOException ioe)
+    {
+        return (ioe instanceof ConnectException) ? TestSSLServer.ProbeOutcome.REFUSED
+            : TestSSLServer.ProbeOutcome.UNREACHABLE;
+    }
+
+    /**
+     * Single protocol version probe against a host:port, driven by the selector loop
+     */
+    private class Probe
+    {
+        final InetSocketAddress isa;
+        final int version;
+        SocketChannel channel;
+        ByteBuffer request;
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        long deadline;
+        boolean connected;
+        boolean bannerPending;
+        boolean done;
+        TestSSLServer.ProbeOutcome outcome;
+        int negotiatedVersion = -1;
+
+        Probe(InetSocketAddress isa, int version)
+        {
+            this.isa = isa;
+            this.version = version;
+            this.bannerPending = bannerPorts.contains(isa.getPort());
+        }
+
+        void
+        start(Selector selector)
+        {
+            deadline = System.currentTimeMillis() + connectTimeoutMs;
+            if (isa.isUnresolved()) {
+                System.err.println("could not connect to " + isa + ": unresolved address");
+                finish(TestSSLServer.ProbeOutcome.UNREACHABLE);
+                return;
+            }
+
+            try {
+                request = ByteBuffer.wrap(makeProbeRequest(version));
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(isa)) {
+                    onConnected();
+                    channel.register(selector, bannerPending ? SelectionKey.OP_READ : SelectionKey.OP_WRITE, this);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException ioe) {
+                System.err.println("could not connect to " + isa + ": " + ioe.toString());
+                finish(connectFailureOutcome(ioe));
+            }
+        }
+
+        void
+        handle(SelectionKey key)
+        {
+            if (done) {
+                return;
+            }
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    onConnected();
+                    key.interestOps(bannerPending ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    readBuffer.clear();
+                    int readLen = channel.read(readBuffer);
+                    if (readLen < 0) {
+                        // server closed the connection without completing the hello
+                        finish(TestSSLServer.ProbeOutcome.RESET);
+                        return;
+                    }
+                    response.write(readBuffer.array(), 0, readLen);
+                    if (bannerPending) {
+                        skipBanner(key);
+                    } else {
+                        parseResponse();
+                    }
+                }
+            } catch (IOException ioe) {
+                if (!connected) {
+                    System.err.println("could not connect to " + isa + ": " + ioe.toString());
+                    finish(connectFailureOutcome(ioe));
+                } else {
+                    finish(TestSSLServer.ProbeOutcome.RESET);
+                }
+            }
+        }
+
+        void
+        finish(TestSSLServer.ProbeOutcome probeOutcome)
+        {
+            outcome = probeOutcome;
+            done = true;
+        }
+
+        private void
+        onConnected()
+        {
+            connected = true;
+            deadline = System.currentTimeMillis() + readTimeoutMs;
+        }
+
+        /*
+         * Discard the banner once its complete line is received and
+         * send the hello, which starts the TLS handshake
+         */
+        private void
+        skipBanner(SelectionKey key)
+        {
+            byte[] data = response.toByteArray();
+            for (byte b : data) {
+                if (b == '\n') {
+                    bannerPending = false;
+                    response.reset();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (data.length > MAX_RESPONSE_LEN) {
+                finish(TestSSLServer.ProbeOutcome.RESET);
+            }
+        }
+
+        /*
+         * Try parsing the data received so far. EOFException only means the
+         * response is not complete yet, so wait for more data
+         */
+        private void
+        parseResponse()
+        {
+            byte[] data = response.toByteArray();
+            if (data[0] == TestSSLServer.ALERT) {
+                // server rejected the handshake straight away
+                finish(TestSSLServer.ProbeOutcome.ALERT);
+                return;
+            }
+            try {
+                if (version == 0x0200) {
+                    new TestSSLServer.ServerHelloSSLv2(new ByteArrayInputStream(data));
+                    negotiatedVersion = 0x0200;
+                } else {
+                    negotiatedVersion =
+                        new TestSSLServer.ServerHello(new ByteArrayInputStream(data), true).protoVersion;
+                }
+                finish(TestSSLServer.ProbeOutcome.VERSION);
+            } catch (EOFException eof) {
+                if (data.length > MAX_RESPONSE_LEN) {
+                    finish(TestSSLServer.ProbeOutcome.RESET);
+                }
+            } catch (IOException ioe) {
+                // not a valid hello, protocol version is not supported
+                finish(TestSSLServer.ProbeOutcome.RESET);
+            }
+        }
+
+        void
+        close()
+        {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    // ignored
+                }
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Rolling, cluster-aware scheduler of hosts. Hosts are let in for
+ * configuration in rolling waves, with a cap on the number of hosts of a
+ * cluster being configured at the same time and a cap on all the hosts
+ * being configured at the same time. Reports progress and ETA as hosts
+ * complete.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ClusterWaveScheduler<T>
+{
+    // Default number of hosts of a cluster configured at the same time
+    public static final int DEFAULT_PER_CLUSTER_CAP = 1;
+
+    // Default number of hosts waiting for their turn, beyond which the caller is held back
+    public static final int DEFAULT_MAX_PENDING = 1024;
+
+    /**
+     * Lets the host in for configuration
+     */
+    public interface Dispatcher<T>
+    {
+        void
+        dispatch(T host) throws Exception;
+    }
+
+    private final int globalCap;
+    private final int perClusterCap;
+    private final int maxPending;
+    private final Dispatcher<T> dispatcher;
+
+    // Hosts waiting for their turn, per cluster. Clusters are served round robin
+    private final Map<String, Deque<T>> pendingHosts = new LinkedHashMap<String, Deque<T>>();
+    private final Map<String, Integer> inFlightCount = new HashMap<String, Integer>();
+    private int pendingCount;
+    private int totalInFlight;
+
+    // Progress
+    private final long startTime = System.currentTimeMillis();
+    private int submittedCount;
+    private int dispatchedCount;
+    private int completedCount;
+    private boolean allSubmitted;
+
+    /**
+     * Constructor
+     */
+    public ClusterWaveScheduler(int globalCap, int perClusterCap, int maxPending, Dispatcher<T> dispatcher)
+    {
+        this.globalCap = Math.max(1, globalCap);
+        this.perClusterCap = Math.max(1, perClusterCap);
+        this.maxPending = Math.max(1, maxPending);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Add the host to the schedule. 'clusterKey' is the cluster the host belongs to, hosts which are
+     * not part of any cluster should have a key of their own. Blocks while too many hosts are waiting
+     */
+    public void
+    submit(String clusterKey, T host) throws InterruptedException
+    {
+        synchronized (this) {
+            while (pendingCount >= maxPending) {
+                wait();
+            }
+            Deque<T> clusterQueue = pendingHosts.get(clusterKey);
+            if (clusterQueue == null) {
+                clusterQueue = new ArrayDeque<T>();
+                pendingHosts.put(clusterKey, clusterQueue);
+            }
+            clusterQueue.addLast(host);
+            ++pendingCount;
+            ++submittedCount;
+        }
+        dispatchReadyHosts();
+    }
+
+    /**
+     * No more hosts would be submitted, from here on ETA covers all the hosts
+     */
+    public synchronized void
+    allSubmitted()
+    {
+        allSubmitted = true;
+        notifyAll();
+    }
+
+    /**
+     * Host of the cluster is done with its configuration - next host(s) are let in
+     */
+    public void
+    completed(String clusterKey, String hostName)
+    {
+        String progress;
+        synchronized (this) {
+            Integer count = inFlightCount.get(clusterKey);
+            if (count != null && count > 1) {
+                inFlightCount.put(clusterKey, count - 1);
+            } else {
+                inFlightCount.remove(clusterKey);
+            }
+            --totalInFlight;
+            ++completedCount;
+            progress = getProgress();
+            notifyAll();
+        }
+        System.out.println("[Wave Progress] Host: " + hostName + " done. " + progress);
+        dispatchReadyHosts();
+    }
+
+    /**
+     * Wait till all the submitted hosts are done with
+     */
+    public synchronized void
+    awaitCompletion() throws InterruptedException
+    {
+        while (pendingCount > 0 || totalInFlight > 0) {
+            wait();
+        }
+    }
+
+    /*
+     * Let in as many hosts as the caps allow. Dispatch is done outside of the lock, as the
+     * dispatcher may block
+     */
+    private void
+    dispatchReadyHosts()
+    {
+        for (;;) {
+            T host = null;
+            String clusterKey = null;
+            String waveInfo = null;
+            synchronized (this) {
+                if (totalInFlight >= globalCap) {
+                    return;
+                }
+
+                // First cluster, in round robin order, which has hosts waiting and is below its cap
+                Iterator<Map.Entry<String, Deque<T>>> itr = pendingHosts.entrySet().iterator();
+                while (itr.hasNext()) {
+                    Map.Entry<String, Deque<T>> entry = itr.next();
+                    Integer count = inFlightCount.get(entry.getKey());
+                    if (count == null || count < perClusterCap) {
+                        clusterKey = entry.getKey();
+                        host = entry.getValue().pollFirst();
+                        itr.remove();
+                        if (!entry.getValue().isEmpty()) {
+                            // Move the cluster to the end, for the next turn
+                            pendingHosts.put(clusterKey, entry.getValue());
+                        }
+                        break;
+                    }
+                }
+                if (host == null) {
+                    return;
+                }
+
+                Integer count = inFlightCount.get(clusterKey);
+                inFlightCount.put(clusterKey, (count != null) ? count + 1 : 1);
+                if (dispatchedCount % globalCap == 0) {
+                    // Every 'globalCap' hosts let in make a wave, waves roll into each other
+                    waveInfo = "[Wave Progress] Starting wave " + (dispatchedCount / globalCap + 1) + " (up to "
+                        + globalCap + " hosts, " + perClusterCap + " per cluster)";
+                }
+                ++dispatchedCount;
+                ++totalInFlight;
+                --pendingCount;
+                notifyAll();
+            }
+
+            if (waveInfo != null) {
+                System.out.println(waveInfo);
+            }
+            try {
+                dispatcher.dispatch(host);
+            } catch (Exception e) {
+                System.err.println("Could not schedule host: " + host + " for configuration: " + e);
+                completed(clusterKey, String.valueOf(host));
+            }
+        }
+    }
+
+    /*
+     * Progress and ETA. ETA is based on the average time taken per host so far
+     */
+    private String
+    getProgress()
+    {
+        long elapsed = System.currentTimeMillis() - startTime;
+        StringBuilder progress = new StringBuilder();
+        progress.append(completedCount).append("/").append(submittedCount).append(allSubmitted ? "" : "+")
+            .append(" hosts done, ").append(totalInFlight).append(" in progress across ")
+            .append(inFlightCount.size()).append(" cluster(s), ").append(pendingCount)
+            .append(" waiting. Elapsed: ").append(formatDuration(elapsed));
+
+        int remaining = submittedCount - completedCount;
+        if (completedCount > 0 && remaining > 0) {
+            progress.append(", ETA: ").append(formatDuration(elapsed * remaining / completedCount));
+            if (!allSubmitted) {
+                progress.append(" (for hosts read so far)");
+            }
+        }
+        return progress.toString();
+    }
+
+    private static String
+    formatDuration(long millis)
+    {
+        long secs = millis / 1000;
+        return String.format("%dh %02dm %02ds", secs / 3600, (secs % 3600) / 60, secs % 60);
+    }
+}
@@ -32,22 +32,30 @@ package com.vmware.secprotomgmt;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
-import com.vmware.vim25.HostRuntimeInfo;
 import com.vmware.vim25.HostService;
-import com.vmware.vim25.HostSystemConnectionState;
 import com.vmware.vim25.mo.HostServiceSystem;
 import com.vmware.vim25.mo.HostSystem;
-import com.vmware.vim25.mo.InventoryNavigator;
-import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ServiceInstance;
 
 import ch.ethz.ssh2.Connection;
@@ -62,6 +70,36 @@ public class ESXi5xSSLConfigUpdater
     private String url;
     private ServiceInstance si;
 
+    // Index of inventory hosts, built once per vSphere session
+    private HostInventoryIndex hostInventory;
+
+    // Services information of the hosts, retrieved once per host
+    private final HostServiceStateCache serviceStateCache = new HostServiceStateCache();
+
+    // Stages of hosts pipeline, see configureHosts
+    private static final int STAGE_SSH_UP = 0;
+    private static final int STAGE_VERSION_CHECK = 1;
+    private static final int STAGE_CONFIGURE = 2;
+    private static final int STAGE_TEARDOWN = 3;
+    private static final int STAGE_COUNT = 4;
+    private PipelineStage[] hostStages;
+
+    // Rolling, cluster-aware scheduler letting hosts into the configure stage of hosts pipeline
+    private ClusterWaveScheduler<HostConfigContext> waveScheduler;
+
+    // Hosts (per 'parallelism') that may have SSH up and be logged into, while waiting for their turn to be configured
+    private static final int SSH_READ_AHEAD = 2;
+
+    // Read-only scan of hosts ports, ahead of the scheduler - to leave out hosts already configured
+    private PipelineStage prescanStage;
+
+    // Version of hosts from their product info, esxcli is run only for a host/build not seen before
+    private HostVersionResolver versionResolver;
+
+    // Journal of hosts configuration progress, and whether to resume from it
+    private HostsConfigJournal journal;
+    private boolean resumeRun;
+
     // Supported release versions of 55 for SSLv3 enablement
     private final String SUPPORTED_55P07_VERSION = "5.5.0";
     private final Integer SUPPORTED_55P07_UPDATE_VER = 3; // Update 3 and above
@@ -110,8 +148,6 @@ public class ESXi5xSSLConfigUpdater
     private final String CMD_AUTHD_50 = SET_CMD + "/UserVars/VMAuthdDisabledProtocols50 -s ";
     private final String CMD_AUTHD_LIST_PROTOS_50 = LIST_CMD + "/UserVars/VMAuthdDisabledProtocols50";
 
-    private final String CMD_VERSION_CHECK = "esxcli system version get";
-
     // Security protocol strings
     private final String PROTO_SSLV3 = "sslv3";
     private final String PROTO_TLS10 = "tlsv1";
@@ -123,25 +159,21 @@ public class ESXi5xSSLConfigUpdater
 
     private final String SSL_OPTIONS_TAG = "sslOptions";
 
+    // Scans of a port that does not answer at all, and delay (in milliseconds, doubled on every retry) in between
+    private final int SCAN_ATTEMPTS = 3;
+    private final long SCAN_RETRY_DELAY_MS = 5 * 1000;
+
     // TLSv1.0 protocol as seen by TestSSLServer open source tool
     private final String TESTSSLSERVER_PROTO_TLS10 = "TLSv1.0";
 
+    // Default list of supported protocols, each host works on its own copy (see HostConfigContext)
     private List<String> defaultSecProtoList;
 
-    /*
-     * Map of Port & Protocols 'about to be' enabled. This would be used for
-     * cleanup process
-     */
-    private Map<Integer, List<String>> enabledInpSecProtoMap = null;
-
     // SSH service
     private final String SSH_SERVICE = "TSM-SSH";
-    private String SERVICE_RUNNING = "on";
-    private String SERVICE_STOPPED = "off";
-    private boolean cleanupStopSSHService = false;
-    private static Connection sshConnObjCurrentHost;
-    private static HostSystem currentHostSys;
-    private static String currentHostName;
+
+    // Time (in milliseconds) to wait for a host service to reach the state, after start/stop
+    private static final long SERVICE_STATE_WAIT_MS = 60 * 1000;
 
     // VC inventory related objects
     public static final String DC_MOR_TYPE = "Datacenter";
@@ -179,14 +211,26 @@ public class ESXi5xSSLConfigUpdater
     private File existingFilePtr;
     private boolean disableESXiVerCheck;
     private boolean isStandAloneHost;
-    private boolean is51Host;
-    private boolean is50Host;
+
+    // Number of hosts to configure at the same time
+    private int parallelism = 1;
+
+    // Number of hosts of a cluster to configure at the same time
+    private int clusterParallelism = ClusterWaveScheduler.DEFAULT_PER_CLUSTER_CAP;
+
+    // Read-only scan of SSL/TLS protocols on hosts, and its report format (csv/json)
+    private boolean scanHosts;
+    private String reportFormat = "csv";
 
     /*
      * Nested map to store result of host's-all port's TLS configuration information
      * <<PortNumber>, <Before-TLS-Protocols, After-TLS-Protocols>
+     * Host's entry is held only till it is written into result file
      */
-    private HashMap<String, List<HostSSLResultHolderClass>> hostSSLconfigResultHolderObj;
+    private Map<String, List<HostSSLResultHolderClass>> hostSSLconfigResultHolderObj;
+
+    // Result file, written host by host as they complete
+    private HostInfoHelper.HostsSSLConfigResultWriter resultWriter;
 
 
     /**
@@ -239,8 +283,49 @@ public class ESXi5xSSLConfigUpdater
                 tls_protos_enable = PROTO_TLS10 + "," + PROTO_TLS11 + "," + PROTO_TLS12;
                 enableSsl = false;
                 System.out.println("SSLv3 Protocol : Disable");
+            } else if (cmdProps[i].equals("--servicewaittimeout")) {
+                try {
+                    SSHUtil.setServiceWaitDeadline(Long.parseLong(cmdProps[i + 1]) * 1000);
+                    System.out.println("Service state wait timeout (secs):" + cmdProps[i + 1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid --servicewaittimeout value: " + cmdProps[i + 1] + ", using default");
+                }
+            } else if (cmdProps[i].equals("streamservicestate")) {
+                SSHUtil.setStreamServiceState(true);
+                System.out.println("Stream service state changes: true");
+            } else if (cmdProps[i].equals("resume")) {
+                resumeRun = true;
+                System.out.println("Resume from journal: true");
+            } else if (cmdProps[i].equals("scan")) {
+                scanHosts = true;
+                System.out.println("Scan SSL/TLS protocols of hosts: true");
+            } else if (cmdProps[i].equals("--format")) {
+                reportFormat = cmdProps[i + 1];
+                System.out.println("Report format:" + reportFormat);
             } else if (cmdProps[i].equals("disableversioncheck")) {
                 disableESXiVerCheck = true;
+            } else if (cmdProps[i].equals("--parallelism")) {
+                try {
+                    parallelism = Integer.parseInt(cmdProps[i + 1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid --parallelism value: " + cmdProps[i + 1] + ", using default: 1");
+                }
+                if (parallelism < 1) {
+                    parallelism = 1;
+                }
+                System.out.println("Hosts to configure in parallel:" + parallelism);
+            } else if (cmdProps[i].equals("--clusterparallelism")) {
+                try {
+                    clusterParallelism = Integer.parseInt(cmdProps[i + 1]);
+                } catch (NumberFormatException e) {
+                    System.err.println(
+                        "Invalid --clusterparallelism value: " + cmdProps[i + 1] + ", using default: "
+                            + ClusterWaveScheduler.DEFAULT_PER_CLUSTER_CAP);
+                }
+                if (clusterParallelism < 1) {
+                    clusterParallelism = ClusterWaveScheduler.DEFAULT_PER_CLUSTER_CAP;
+                }
+                System.out.println("Hosts of a cluster to configure in parallel:" + clusterParallelism);
             }
         }
         System.out.println("-------------------------------------------------------------------\n");
@@ -254,7 +339,7 @@ public class ESXi5xSSLConfigUpdater
     {
         boolean val = false;
 
-        if (!getHosts && !enableSsl) {
+        if (!getHosts && !scanHosts && !enableSsl) {
             boolean warningAccepted = false;
             Scanner sc = new Scanner(System.in);
             try {
@@ -311,7 +396,7 @@ public class ESXi5xSSLConfigUpdater
                 val = false;
             }
 
-            if (!getHosts && val) {
+            if (!getHosts && !scanHosts && val) {
                 if (tls_protos_enable != null) {
                     this.secProtosToEnable = new ArrayList<String>();
                     if (enableSsl) {
@@ -362,6 +447,14 @@ public class ESXi5xSSLConfigUpdater
             } else if (getHosts && val) {
                 System.out.println("Request is to fetch ESXi hosts information");
                 val = true;
+            } else if (scanHosts && val) {
+                if ("csv".equalsIgnoreCase(reportFormat) || "json".equalsIgnoreCase(reportFormat)) {
+                    System.out.println("Request is to scan SSL/TLS protocols of ESXi hosts");
+                    val = true;
+                } else {
+                    System.err.println("Unsupported report format: " + reportFormat + ", supported formats are csv, json");
+                    val = false;
+                }
             }
         } else {
             System.err.println("VC IP is null. See below the usage of script");
@@ -420,443 +513,1010 @@ public class ESXi5xSSLConfigUpdater
     public boolean
     executeScriptFlow()
     {
-        hostSSLconfigResultHolderObj = new HashMap<String, List<HostSSLResultHolderClass>>();
+        // Hosts are configured from multiple worker threads, all of them record their result here
+        hostSSLconfigResultHolderObj = new ConcurrentHashMap<String, List<HostSSLResultHolderClass>>();
+
+        /*
+         *  If standalone host, NO need to write ALL hosts result into file, as it is printed already
+         */
+        if (!isStandAloneHost && !scanHosts && !getHosts) {
+            resultWriter = new HostInfoHelper.HostsSSLConfigResultWriter(tls_protos_enable, portToServiceNameMap);
+        }
 
         try {
             if (si != null) {
-                List<HostInfoHelper.HostsInfoHolderClass> hostsListFromFile = null;
-                if (getHosts) {
-                    System.out.println("Try to retrieve ESXi hosts information from VC ...");
-                    List<HostSystem> allHostSys = retrieveHosts();
-                    if (allHostSys != null && allHostSys.size() > 0) {
-                        // Create hosts file information, if the request be and
-                        // return back to the caller
-                        return HostInfoHelper.createHostsInformationFile(allHostSys);
+                if (scanHosts) {
+                    List<String> hostNames = new ArrayList<String>();
+                    if (isStandAloneHost) {
+                        hostNames.add(vsphereIp);
+                    } else {
+                        System.out.println("Try to retrieve ESXi hosts information from VC ...");
+                        List<HostInventoryIndex.HostEntry> allHosts = retrieveHosts();
+                        if (allHosts != null) {
+                            for (HostInventoryIndex.HostEntry tempHost : allHosts) {
+                                hostNames.add(tempHost.name);
+                            }
+                        }
+                    }
+                    if (hostNames.size() > 0) {
+                        return scanHostsSecProtos(hostNames);
                     } else {
                         System.err.println(
                             "Could not retrieve hosts from VC:" + vsphereIp
                                 + ", Either all hosts are NOT in connected state, or we failed retrieving hosts");
                         return false;
                     }
+                } else if (getHosts) {
+                    System.out.println("Try to retrieve ESXi hosts information from VC ...");
+                    // Create hosts file information, if the request be and
+                    // return back to the caller
+                    return HostInfoHelper.createHostsInformationFile(si);
                 } else {
+                    Iterator<HostInfoHelper.HostsInfoHolderClass> hostsInfoSource = null;
+                    HostInfoHelper.HostsInfoFileReader hostsFileReader = null;
                     if (isStandAloneHost) {
-                        hostsListFromFile = new ArrayList<HostInfoHelper.HostsInfoHolderClass>();
                         HostInfoHelper.HostsInfoHolderClass tempSingleHostInfoObject = new HostInfoHelper.HostsInfoHolderClass();
-                        HostSystem tempSingleHostSys = retrieveSingleHostSys(vsphereIp);
-                        if (tempSingleHostSys != null) {
+                        HostInventoryIndex.HostEntry tempSingleHost = retrieveSingleHost(vsphereIp);
+                        if (tempSingleHost != null) {
                             tempSingleHostInfoObject.hostName = vsphereIp;
-                            tempSingleHostInfoObject.hostSys = tempSingleHostSys;
-                            tempSingleHostInfoObject.hostVer = tempSingleHostSys.getConfig().getProduct().getFullName();
+                            tempSingleHostInfoObject.hostSys = tempSingleHost.hostSys;
+                            tempSingleHostInfoObject.hostVer = tempSingleHost.productFullName;
                             tempSingleHostInfoObject.username = userName;
                             tempSingleHostInfoObject.password = password;
-                            // Write the object information into list
-                            hostsListFromFile.add(tempSingleHostInfoObject);
+                            hostsInfoSource = Collections.singletonList(tempSingleHostInfoObject).iterator();
                         } else {
                             System.err.println("Unable to obtain ESXi hosts HostSystem object");
                             return false;
                         }
                     } else {
-                        // read hosts file information, to know on what all hosts
-                        // SSL configuration need to be done
+                        /*
+                         * read hosts file information, to know on what all hosts SSL configuration need to
+                         * be done. File is read as the hosts are configured, not upfront
+                         */
                         System.out.println("Retrieve ESXi hosts information from file ...");
+                        hostsFileReader = new HostInfoHelper.HostsInfoFileReader(existingFilePtr);
+                        hostsInfoSource = hostsFileReader;
+                    }
 
-                        List<HostInfoHelper.HostsInfoHolderClass> tempAllHostsListFromFile = HostInfoHelper
-                            .readHostsInfoFile(existingFilePtr);
-                        if (tempAllHostsListFromFile != null && tempAllHostsListFromFile.size() > 0) {
-                            System.out.println("Check if ESXi hosts exist & connected in VC inventory ...");
-                            hostsListFromFile = new ArrayList<HostInfoHelper.HostsInfoHolderClass>();
-                            for (HostInfoHelper.HostsInfoHolderClass tempHostInfo : tempAllHostsListFromFile) {
-                                HostSystem tempHostSys = retrieveSingleHostSys(tempHostInfo.hostName);
-                                if (tempHostSys != null) {
-                                    tempHostInfo.hostSys = tempHostSys;
-                                    hostsListFromFile.add(tempHostInfo);
-                                } else {
-                                    System.out.println(
-                                        "Skipping ESXi host: " + tempHostInfo.hostName
-                                            + ", as NOW; neither it is in connected state NOR exists in inventory");
-                                }
-                            }
+                    int configuredHostCount = 0;
+                    try {
+                        configuredHostCount = configureHosts(hostsInfoSource);
+                    } finally {
+                        if (hostsFileReader != null) {
+                            hostsFileReader.close();
                         }
                     }
+
+                    // Hosts listed after the point where reading failed were not configured
+                    if (hostsFileReader != null && hostsFileReader.getReadError() != null) {
+                        throw new IOException(
+                            "Hosts information file was read only partly (" + configuredHostCount
+                                + " host(s) handed over), rest of the hosts were NOT configured: "
+                                + hostsFileReader.getReadError().getMessage(),
+                            hostsFileReader.getReadError());
+                    }
+
+                    if (configuredHostCount == 0) {
+                        System.err.println(
+                            "Could not find ESXi hosts entry in hosts information file. Either Hosts are not in connected"
+                            + " state or part of current VC inventory, or we failed reading the file entries correctly. "
+                            + "Please check and try again");
+                    }
                 }
 
-                if (hostsListFromFile != null && hostsListFromFile.size() > 0) {
+            } else {
+                System.err.println("ServiceInstance object is null");
+            }
 
-                    // Construct the default List of Supported Protocols
-                    defaultSecProtoList = new ArrayList<String>();
-                    defaultSecProtoList.add(PROTO_TLS10);
-                    defaultSecProtoList.add(PROTO_TLS11);
-                    defaultSecProtoList.add(PROTO_TLS12);
+        } catch (Exception e) {
+            System.err.println("[Execute Script Flow] Caught exception: " + e.getLocalizedMessage());
+        }
 
-                    // Services/port to configure
-                    Map<Integer, List<String>> userMap_secProtoToEnableOnServices = new LinkedHashMap<Integer, List<String>>();
-                    userMap_secProtoToEnableOnServices.put(AUTHD_PORT, this.secProtosToEnable);
-                     userMap_secProtoToEnableOnServices.put(RHTTP_PROXY_PORT, this.secProtosToEnable);
-                     userMap_secProtoToEnableOnServices.put(SFCBD_PORT, this.secProtosToEnable);
-                     userMap_secProtoToEnableOnServices.put(VSAN_VP_PORT, this.secProtosToEnable);
+        /*
+         * Result of every host has already been printed, and written into result file, as soon as the host
+         * was done with. Complete the result file
+         */
+        if (resultWriter != null) {
+            try {
+                resultWriter.close();
+            } catch (IOException e) {
+                System.err.println("Caught an exception while writing TLS Configuration result into file");
+                e.printStackTrace();
+            }
+            resultWriter = null;
+        }
 
-                    int serviceCount = userMap_secProtoToEnableOnServices.size();
+        return true;
+    }
 
-                    /*
-                     * Hosts loop
-                     */
-                    for (HostInfoHelper.HostsInfoHolderClass hostInfo : hostsListFromFile) {
-                        try {
-                            currentHostName = hostInfo.hostSys.getName();
-                            currentHostSys = hostInfo.hostSys;
-                            String userName = hostInfo.username;
-                            String pwd = hostInfo.password;
+    /**
+     * Hosts loop - each host is resolved as soon as it is read and its ports are pre-scanned; hosts already
+     * configured as requested are left untouched. Rest of the hosts go through the hosts pipeline: SSH up ->
+     * login & version check -> configure & verify -> teardown. Every stage has its own concurrency limit and
+     * a bounded queue in front of it. Hosts are let into the configure stage in rolling waves: up to
+     * 'clusterParallelism' hosts of a cluster and twice 'parallelism' hosts overall in flight, so that
+     * restarting services does not take many hosts of a cluster off vCenter at once. SSH up and login are
+     * not restarts, hence run ahead of the waves for a bounded number of hosts. Returns number of hosts
+     * handed over
+     */
+    private int
+    configureHosts(Iterator<HostInfoHelper.HostsInfoHolderClass> hostsInfoSource) throws InterruptedException
+    {
+        // Construct the default List of Supported Protocols
+        defaultSecProtoList = new ArrayList<String>();
+        defaultSecProtoList.add(PROTO_TLS10);
+        defaultSecProtoList.add(PROTO_TLS11);
+        defaultSecProtoList.add(PROTO_TLS12);
+
+        System.out.println(
+            "Configuring host(s), " + parallelism + " at a time, up to " + clusterParallelism + " per cluster");
+        prescanStage = new PipelineStage("Pre-scan", parallelism * 4, parallelism * 4);
+        hostStages = new PipelineStage[STAGE_COUNT];
+        hostStages[STAGE_SSH_UP] = new PipelineStage("SSH up", parallelism * 2, parallelism);
+        hostStages[STAGE_VERSION_CHECK] = new PipelineStage("Login & version check", parallelism * 2, parallelism);
+        hostStages[STAGE_CONFIGURE] = new PipelineStage("Configure & verify", parallelism, parallelism);
+        hostStages[STAGE_TEARDOWN] = new PipelineStage("Teardown", parallelism * 2, parallelism);
 
-                            List<HostSSLResultHolderClass> allPortsResultHolder =
-                                new ArrayList<HostSSLResultHolderClass>();
+        /*
+         * Hosts in flight (configure & teardown) are capped at the capacity (running + queued) of the configure
+         * stage, hence letting a host in never blocks - even from a pipeline thread. Hosts done with SSH up and
+         * login wait for their turn up to SSH_READ_AHEAD times 'parallelism', then the login stage is held back
+         */
+        waveScheduler = new ClusterWaveScheduler<HostConfigContext>(
+            parallelism * 2,
+            clusterParallelism,
+            parallelism * SSH_READ_AHEAD,
+            new ClusterWaveScheduler.Dispatcher<HostConfigContext>() {
+                @Override
+                public void
+                dispatch(HostConfigContext hostCtx) throws Exception
+                {
+                    hostCtx.waveDispatched = true;
+                    enterHostStage(STAGE_CONFIGURE, hostCtx.hostInfo, hostCtx);
+                }
+            });
 
-                            System.out.println(
-                                "\n******************************************************************************");
-                            System.out.println("\t\t\tHost : " + currentHostName);
-                            System.out.println(
-                                "******************************************************************************");
-                            Thread.sleep(500);
+        // Progress of every host is journaled, so that an interrupted run can be resumed
+        try {
+            journal = HostsConfigJournal.open(
+                new File(HostsConfigJournal.DEFAULT_JOURNAL_FILE).getAbsoluteFile(),
+                enableSsl ? "enablessl" : "disablessl",
+                resumeRun);
+        } catch (IOException e) {
+            System.err.println("Could not open journal file, progress would NOT be recorded: " + e);
+        }
 
-                            /*
-                             * Get SSHConnection for host. If we fail to get
-                             * SSHConnection, return back to the caller.
-                             */
-                            System.out.println(
-                                "Try to start SSH Service, if its not started already. "
-                                    + "This is needed to establish SSH Connection with ESXi host");
-                            if (startSSHService(currentHostSys)) {
-                                System.out.println("Logging into host: " + currentHostName + " through SSH");
-                                try {
-                                    boolean sslConfigSuppportedHost = false;
-
-                                    // Check the version of ESXi host, to
-                                    // determine if SSL toggling is supported
-                                    try {
-                                        sshConnObjCurrentHost = SSHUtil
-                                            .getSSHConnection(currentHostName, userName, pwd);
-                                    } catch (Exception e) {
-                                        System.err.println(
-                                            "Please check ESXi username/password information provided is indeed correct");
-                                    }
-                                    if (sshConnObjCurrentHost != null) {
-                                        if (!disableESXiVerCheck) {
-                                            sslConfigSuppportedHost = hostVerCheckerForSslSupport();
-                                        } else {
-                                            System.out.println("As requested, ESXi version check is SKIPPED");
-                                            sslConfigSuppportedHost = true;
-                                        }
-                                    } else {
-                                        System.err
-                                            .println("Unable to log into host: " + currentHostName + " through SSH");
-                                    }
-
-                                    if (sslConfigSuppportedHost) {
-                                        int tempCounter = 0;
-
-                                        if (is51Host || is50Host) {
-                                            // remove from default supported protocol list: 51 supports only TLSv10
-                                            defaultSecProtoList.remove(PROTO_TLS11);
-                                            defaultSecProtoList.remove(PROTO_TLS12);
-                                            this.secProtosToEnable.remove(PROTO_TLS11);
-                                            this.secProtosToEnable.remove(PROTO_TLS12);
-
-                                            // There is NO vSanvpd in 50/51
-                                            userMap_secProtoToEnableOnServices.remove(VSAN_VP_PORT);
-
-                                            if (enableSsl) {
-                                                tls_protos_enable = PROTO_SSLV3 + "," + PROTO_TLS10;
-                                            } else {
-                                                tls_protos_enable = PROTO_TLS10;
-                                            }
-                                            serviceCount = userMap_secProtoToEnableOnServices.size();
-                                        }
-
-                                        /*
-                                         * Iterate through user provided list of
-                                         * ports and protocols to enable on each
-                                         * of the port
-                                         */
-                                        enabledInpSecProtoMap = new LinkedHashMap<Integer, List<String>>();
-
-                                        for (Integer servicePort : userMap_secProtoToEnableOnServices.keySet()) {
-                                            Boolean isPortConfigSuccessful = null;
-                                            List<String> tempSecProtosToEnable = userMap_secProtoToEnableOnServices
-                                                .get(servicePort);
-
-                                            switch (servicePort) {
-                                            case RHTTP_PROXY_PORT:
-                                            case AUTHD_PORT:
-                                            case SFCBD_PORT:
-                                            case VSAN_VP_PORT:
-                                                System.out.println(
-                                                    "\n**** Service/Port to Configure : "
-                                                        + portToServiceNameMap.get(servicePort) + "(" + servicePort
-                                                        + ") **** ");
-
-                                                if (servicePort == VSAN_VP_PORT) {
-                                                    boolean vsanVpServiceStarted = false;
-                                                    if (!(SSHUtil
-                                                        .isServiceRunning(sshConnObjCurrentHost, SERVICE_VSAN_VP))) {
-                                                        vsanVpServiceStarted = SSHUtil
-                                                            .startService(sshConnObjCurrentHost, SERVICE_VSAN_VP);
-                                                    } else {
-                                                        vsanVpServiceStarted = true;
-                                                    }
-
-                                                    if (!vsanVpServiceStarted) {
-                                                        System.err
-                                                            .println("Could not find VSAN_VP service in running state");
-                                                        break;
-                                                    }
-                                                }
-
-                                                boolean sslFoundEnabledForDisableOp = false;
-                                                System.out.println(
-                                                    "Scan and obtain list of protocols that are currently enabled...");
-                                                List<String> secProtosBeforeChange = null;
-
-                                                if (servicePort == AUTHD_PORT) {
-                                                    secProtosBeforeChange = authdProtocolFetcher(
-                                                        currentHostName,
-                                                        servicePort);
-                                                } else {
-                                                    secProtosBeforeChange = securityProtocolScanner(
-                                                        currentHostName,
-                                                        servicePort);
-                                                }
-
-                                                if (!enableSsl) {
-                                                    if (secProtosBeforeChange.contains(PROTO_SSLV3)) {
-                                                        // we found SSLv3 enabled, we need to disable it
-                                                        sslFoundEnabledForDisableOp = true;
-                                                    } else {
-                                                        System.out.println(PROTO_SSLV3 + " is already disabled");
-                                                        System.out.println("------------------------------------------");
-                                                        System.out.println("List of security protocols currenty enabled");
-                                                        System.out.println(secProtosBeforeChange.toString());
-                                                        System.out.println("------------------------------------------");
-                                                        isPortConfigSuccessful = true;
-                                                        enabledInpSecProtoMap.put(servicePort, secProtosBeforeChange);
-
-                                                        // Store the before, after TLS proto information, for printing purpose
-                                                        HostSSLResultHolderClass individualPortResultClassObj =
-                                                            new HostSSLResultHolderClass();
-                                                        individualPortResultClassObj.port = servicePort;
-                                                        individualPortResultClassObj.afterProtoList = secProtosBeforeChange.toString();
-                                                        individualPortResultClassObj.beforeProtoList = secProtosBeforeChange.toString();
-                                                        allPortsResultHolder.add(individualPortResultClassObj);
-                                                        ++ tempCounter;
-                                                    }
-                                                }
-
-                                                if (enableSsl || sslFoundEnabledForDisableOp) {
-
-                                                    if (servicePort == AUTHD_PORT) {
-                                                        isPortConfigSuccessful = updateAuthdServiceSecProto(
-                                                            servicePort,
-                                                            tempSecProtosToEnable,
-                                                            secProtosBeforeChange);
-                                                    } else {
-                                                        isPortConfigSuccessful = updateESXiServiceSecProto(
-                                                            servicePort,
-                                                            tempSecProtosToEnable,
-                                                            secProtosBeforeChange);
-                                                    }
-
-                                                    if (isPortConfigSuccessful) {
-
-                                                        // Store the before, after TLS proto information, for printing
-                                                        // purpose
-                                                        HostSSLResultHolderClass individualPortResultClassObj = new HostSSLResultHolderClass();
-                                                        individualPortResultClassObj.port = servicePort;
-                                                        individualPortResultClassObj.afterProtoList = tempSecProtosToEnable
-                                                            .toString();
-                                                        individualPortResultClassObj.beforeProtoList = enabledInpSecProtoMap
-                                                            .get(servicePort).toString();
-                                                        allPortsResultHolder.add(individualPortResultClassObj);
-                                                        ++tempCounter;
-                                                    }
-                                                }
-
-                                                break;
-
-                                            default:
-                                                System.err.println(
-                                                    "List contains invalid Service Port (" + servicePort
-                                                        + "( or Service of which configuration"
-                                                        + " is NOT supported yet");
-                                                break;
-                                            } // End of switch loop
-
-                                            /*
-                                             * In case of configuration failure of any single port, SKIP further
-                                             * configuration of ports on the host
-                                             */
-                                            if (isPortConfigSuccessful != null && (!isPortConfigSuccessful)) {
-                                                // Try reverting the configuration changes made to other ports
-                                                System.out.println(
-                                                    "Configuration update was not successful, check & revert the changes made, if any");
-                                                restoreConfiguration();
-                                                break;
-                                            } else if (tempCounter == serviceCount){
-                                                // All operations went through fine, populate the result holder object
-                                                hostSSLconfigResultHolderObj.put(currentHostName, allPortsResultHolder);
-                                            }
-
-                                        } // End of ports-services loop
-                                    }
-                                } catch (Exception e) {
-                                    System.err
-                                        .println("Caught an exception while configuring host: " + currentHostName);
-                                    e.printStackTrace();
-                                }
-                            } else {
-                                System.err.println(
-                                    SSH_SERVICE + " Service could not be started, which is a must to continue!");
-                            }
+        versionResolver = HostVersionResolver.open(new File(HostVersionResolver.DEFAULT_CACHE_FILE).getAbsoluteFile());
 
-                        } catch (Exception e) {
-                            System.out.println("[Hosts Loop Entry] Caught exception:" + e.getLocalizedMessage());
-                            restoreConfiguration();
-                        } finally {
-                            // Cleanup- Restore SSH service state
-                            if (cleanupStopSSHService == true) {
-                                System.out.println("Reverting the SSH Service state, as it was before");
-                                if (currentHostSys.getName() == null) {
-                                    if (isStandAloneHost) {
-                                        si = loginTovSphere(url);
-                                    }
-                                    currentHostSys = retrieveSingleHostSys(currentHostName);
-                                }
-                                stopSSHService(currentHostSys);
-                            }
+        int hostCount = 0;
+        try {
+            while (hostsInfoSource.hasNext()) {
+                final HostInfoHelper.HostsInfoHolderClass hostInfo = hostsInfoSource.next();
+                HostInventoryIndex.HostEntry tempHost = null;
+                if (hostInfo.hostSys == null) {
+                    tempHost = retrieveSingleHost(hostInfo.hostName);
+                    if (tempHost == null) {
+                        System.out.println(
+                            "Skipping ESXi host: " + hostInfo.hostName
+                                + ", as NOW; neither it is in connected state NOR exists in inventory");
+                        continue;
+                    }
+                    hostInfo.hostSys = tempHost.hostSys;
+                } else if (getHostInventory() != null) {
+                    tempHost = getHostInventory().getHost(hostInfo.hostSys);
+                }
 
-                            // cleanup the objects
-                            currentHostName = null;
-                            currentHostSys = null;
-                            enabledInpSecProtoMap = null;
+                // On resume, hosts already done are not touched again, their result is taken from journal
+                String tempHostName = (tempHost != null) ? tempHost.name : hostInfo.hostName;
+                if (journal != null && journal.isHostDone(tempHostName)) {
+                    System.out.println("Skipping ESXi host: " + tempHostName + ", as it was already configured as per journal");
+                    List<HostSSLResultHolderClass> allPortsResultHolder = new ArrayList<HostSSLResultHolderClass>();
+                    Map<Integer, String[]> verifiedPorts = journal.getVerifiedPorts(tempHostName);
+                    for (Integer verifiedPort : verifiedPorts.keySet()) {
+                        HostSSLResultHolderClass individualPortResultClassObj = new HostSSLResultHolderClass();
+                        individualPortResultClassObj.port = verifiedPort;
+                        individualPortResultClassObj.beforeProtoList = verifiedPorts.get(verifiedPort)[0];
+                        individualPortResultClassObj.afterProtoList = verifiedPorts.get(verifiedPort)[1];
+                        allPortsResultHolder.add(individualPortResultClassObj);
+                    }
+                    hostSSLconfigResultHolderObj.put(tempHostName, allPortsResultHolder);
+                    reportHostResult(tempHostName);
+                    ++hostCount;
+                    continue;
+                }
 
-                            // Close the SSHConnection
-                            if (sshConnObjCurrentHost != null) {
-                                sshConnObjCurrentHost.close();
-                                sshConnObjCurrentHost = null;
+                final HostConfigContext hostCtx = new HostConfigContext(this.secProtosToEnable, defaultSecProtoList);
+                hostCtx.hostInfo = hostInfo;
+                hostCtx.hostSys = hostInfo.hostSys;
+                hostCtx.hostEntry = tempHost;
+
+                // Host which is not part of any cluster, is a cluster on its own
+                if (tempHost != null && tempHost.clusterId != null) {
+                    hostCtx.clusterKey = tempHost.clusterId;
+                    System.out.println(
+                        "Scheduling host: " + hostInfo.hostName + " of cluster: "
+                            + getHostInventory().getClusterName(tempHost.clusterId));
+                } else {
+                    hostCtx.clusterKey = HOST_MOR_TYPE + ":" + hostInfo.hostSys.getMOR().getVal();
+                }
+
+                /*
+                 * Pre-scan all ports of the host (no SSH, no vSphere call). Host found already configured
+                 * as requested is a no-op, the rest are handed over to the hosts pipeline
+                 */
+                final String prescanHostName = tempHostName;
+                prescanStage.submit(new Runnable() {
+                    @Override
+                    public void
+                    run()
+                    {
+                        try {
+                            if (prescanHost(prescanHostName, hostCtx)) {
+                                return;
                             }
+                        } catch (Exception e) {
+                            System.err.println("Caught exception while pre-scanning host: " + prescanHostName + " : " + e);
                         }
+                        try {
+                            enterHostStage(STAGE_SSH_UP, hostCtx.hostInfo, hostCtx);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                ++hostCount;
+            }
+        } finally {
+            /*
+             * Stages hand over hosts only downstream, hence once a stage is done, no more hosts can
+             * arrive at the next one. Once login stage is done, all hosts to configure have been
+             * handed over to the scheduler
+             */
+            prescanStage.shutdownAndWait();
+            hostStages[STAGE_SSH_UP].shutdownAndWait();
+            hostStages[STAGE_VERSION_CHECK].shutdownAndWait();
+            waveScheduler.allSubmitted();
+            waveScheduler.awaitCompletion();
+            hostStages[STAGE_CONFIGURE].shutdownAndWait();
+            hostStages[STAGE_TEARDOWN].shutdownAndWait();
+
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            versionResolver.close();
+        }
 
-                        /*
-                         * Print the final SSL Configuration result of host
-                         */
-                        printSslConfigResult(hostInfo.hostSys.getName());
+        return hostCount;
+    }
 
+    /*
+     * Scan all the ports of host, and if the host is already configured as requested, record its result
+     * without touching it - no SSH, no vSphere call. Returns true if the host needs no configuration
+     */
+    private boolean
+    prescanHost(String hostName, HostConfigContext hostCtx) throws Exception
+    {
+        /*
+         * Host version as the version check stage goes by (product info, without SSH), so that both
+         * expect the same protocols. Host whose version is not known is not pre-scanned
+         */
+        boolean is50or51Host = false;
+        if (!disableESXiVerCheck) {
+            HostVersionResolver.HostVersion hostVersion = versionResolver.resolve(hostCtx.hostEntry, null, false);
+            if (hostVersion == null) {
+                return false;
+            }
+            is50or51Host = hostVersion.version.contains(SUPPORTED_50_VERSION)
+                || hostVersion.version.contains(SUPPORTED_51_VERSION);
+        }
 
-                    } // End of Hosts loop
+        // Ports & protocols as applicable to the host version, there is NO vSanvpd in 50/51
+        List<String> tempSecProtosToEnable = new ArrayList<String>(hostCtx.secProtosToEnable);
+        List<Integer> servicePorts = new ArrayList<Integer>(
+            Arrays.asList(RHTTP_PROXY_PORT, AUTHD_PORT, SFCBD_PORT, VSAN_VP_PORT));
+        if (is50or51Host) {
+            tempSecProtosToEnable.remove(PROTO_TLS11);
+            tempSecProtosToEnable.remove(PROTO_TLS12);
+            servicePorts.remove(VSAN_VP_PORT);
+        }
 
-                } else {
-                    System.err.println(
-                        "Could not find ESXi hosts entry in hosts information file. Either Hosts are not in connected"
-                        + " state or part of current VC inventory, or we failed reading the file entries correctly. "
-                        + "Please check and try again");
+        List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>();
+        for (Integer servicePort : servicePorts) {
+            targets.add(new InetSocketAddress(hostName, servicePort));
+        }
+        Map<InetSocketAddress, AsyncProtoScanner.TargetResult> scanResult = newProtoScanner().scan(targets);
+
+        List<HostSSLResultHolderClass> allPortsResultHolder = new ArrayList<HostSSLResultHolderClass>();
+        for (InetSocketAddress isa : targets) {
+            List<String> secProtos = new ArrayList<String>();
+            AsyncProtoScanner.TargetResult targetResult = scanResult.get(isa);
+            if (targetResult != null) {
+                for (int version : targetResult.protoVersions) {
+                    String tempProtocol = TestSSLServer.versionString(version);
+                    secProtos.add(
+                        tempProtocol.equals(TESTSSLSERVER_PROTO_TLS10) ? PROTO_TLS10 : tempProtocol.toLowerCase());
                 }
+            }
 
+            // Same checks as done while configuring the port, see configurePort & update*SecProto
+            boolean portConfigured;
+            if (secProtos.isEmpty()) {
+                portConfigured = false;
+            } else if (enableSsl) {
+                portConfigured = secProtos.containsAll(tempSecProtosToEnable)
+                    && secProtos.size() == tempSecProtosToEnable.size();
             } else {
-                System.err.println("ServiceInstance object is null");
+                portConfigured = !secProtos.contains(PROTO_SSLV3);
+            }
+            if (!portConfigured) {
+                return false;
+            }
+
+            HostSSLResultHolderClass individualPortResultClassObj = new HostSSLResultHolderClass();
+            individualPortResultClassObj.port = isa.getPort();
+            individualPortResultClassObj.beforeProtoList = secProtos.toString();
+            individualPortResultClassObj.afterProtoList = secProtos.toString();
+            allPortsResultHolder.add(individualPortResultClassObj);
+        }
+
+        System.out.println(
+            "ESXi host: " + hostName + " is already configured as requested on all ports, SKIPPING it");
+        for (HostSSLResultHolderClass portResult : allPortsResultHolder) {
+            journalRecord(
+                hostName,
+                portResult.port,
+                HostsConfigJournal.PORT_VERIFIED,
+                portResult.beforeProtoList + "|" + portResult.afterProtoList);
+        }
+        journalRecord(hostName, null, HostsConfigJournal.HOST_DONE, null);
+        hostSSLconfigResultHolderObj.put(hostName, allPortsResultHolder);
+        printSslConfigResult(hostName);
+        reportHostResult(hostName);
+        return true;
+    }
+
+    /*
+     * Hand over the host to a stage of hosts pipeline. Once the stage is done with the host, it moves on
+     * to the next stage - or straight to teardown, if the stage could not complete on the host. Host moves
+     * on to the configure stage only when the scheduler lets it in
+     */
+    private void
+    enterHostStage(final int stage,
+                   final HostInfoHelper.HostsInfoHolderClass hostInfo,
+                   final HostConfigContext hostCtx) throws InterruptedException
+    {
+        hostStages[stage].submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                boolean stageCompleted = false;
+                try {
+                    stageCompleted = runHostStage(stage, hostInfo, hostCtx);
+                } catch (Exception e) {
+                    System.err.println(
+                        "Caught an exception while configuring host: " + hostInfo.hostName + " ["
+                            + hostStages[stage].getName() + "]");
+                    e.printStackTrace();
+                }
+
+                if (stage != STAGE_TEARDOWN) {
+                    try {
+                        if (stageCompleted && stage + 1 == STAGE_CONFIGURE) {
+                            // Wait for the host's turn
+                            waveScheduler.submit(hostCtx.clusterKey, hostCtx);
+                        } else {
+                            enterHostStage(stageCompleted ? stage + 1 : STAGE_TEARDOWN, hostInfo, hostCtx);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        if (hostCtx.waveDispatched) {
+                            waveScheduler.completed(hostCtx.clusterKey, hostInfo.hostName);
+                        }
+                    }
+                } else if (hostCtx.waveDispatched) {
+                    // Host is done with, let the next host(s) in
+                    waveScheduler.completed(hostCtx.clusterKey, hostInfo.hostName);
+                }
             }
+        });
+    }
+
+    /*
+     * Body of each stage of hosts pipeline. Returns true if the host can move on to the next stage
+     */
+    private boolean
+    runHostStage(int stage, HostInfoHelper.HostsInfoHolderClass hostInfo, HostConfigContext hostCtx)
+        throws Exception
+    {
+        boolean stageCompleted = false;
+
+        switch (stage) {
+        case STAGE_SSH_UP:
+            stageCompleted = sshUpStage(hostInfo, hostCtx);
+            break;
+        case STAGE_VERSION_CHECK:
+            stageCompleted = versionCheckStage(hostInfo, hostCtx);
+            break;
+        case STAGE_CONFIGURE:
+            stageCompleted = configureStage(hostInfo, hostCtx);
+            break;
+        case STAGE_TEARDOWN:
+            teardownStage(hostInfo, hostCtx);
+            stageCompleted = true;
+            break;
+        default:
+            System.err.println("Invalid stage of hosts pipeline: " + stage);
+            break;
+        }
+
+        return stageCompleted;
+    }
 
+    /**
+     * Read-only audit of SSL/TLS protocols enabled on all services/ports of given hosts. Only TLS
+     * handshakes are made (no SSH, no configuration change) and all hosts are probed at the same time.
+     * Result of each port is streamed into CSV/JSON report file as soon as it is scanned
+     */
+    private boolean
+    scanHostsSecProtos(List<String> hostNames)
+    {
+        List<Integer> servicePorts = Arrays.asList(RHTTP_PROXY_PORT, AUTHD_PORT, SFCBD_PORT, VSAN_VP_PORT);
+        final Map<InetSocketAddress, String> targetToHostName = new LinkedHashMap<InetSocketAddress, String>();
+        for (String hostName : hostNames) {
+            for (Integer servicePort : servicePorts) {
+                targetToHostName.put(new InetSocketAddress(hostName, servicePort), hostName);
+            }
+        }
+
+        final HostInfoHelper.HostsScanReportWriter reportWriter;
+        try {
+            reportWriter = new HostInfoHelper.HostsScanReportWriter("json".equalsIgnoreCase(reportFormat));
+        } catch (IOException e) {
+            System.err.println("Could not create ESXi hosts scan report file");
+            e.printStackTrace();
+            return false;
+        }
+
+        System.out.println("Scanning " + hostNames.size() + " host(s) on ports: " + servicePorts);
+        final Set<String> sslv3EnabledHosts = new TreeSet<String>();
+        try {
+            newProtoScanner().scan(targetToHostName.keySet(), new AsyncProtoScanner.ScanListener() {
+                @Override
+                public void
+                targetScanned(InetSocketAddress isa, Set<Integer> protoVersions)
+                {
+                    String hostName = targetToHostName.get(isa);
+                    String serviceName = portToServiceNameMap.get(isa.getPort());
+                    List<String> protocols = new ArrayList<String>();
+                    for (int version : protoVersions) {
+                        protocols.add(TestSSLServer.versionString(version));
+                    }
+                    if (protoVersions.contains(0x0300)) {
+                        sslv3EnabledHosts.add(hostName);
+                    }
+
+                    System.out.println(hostName + " : " + serviceName + "(" + isa.getPort() + ") : " + protocols);
+                    try {
+                        reportWriter.writeRow(hostName, serviceName, isa.getPort(), protocols);
+                    } catch (IOException e) {
+                        System.err.println("Caught an exception while writing scan result of host: " + hostName);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("[Hosts Scan] Caught exception: " + e.getLocalizedMessage());
+            return false;
+        } finally {
+            try {
+                reportWriter.close();
+            } catch (IOException e) {
+                System.err.println("Caught an exception while closing the scan report file");
+            }
+        }
+
+        System.out.println(
+            "Hosts with " + PROTO_SSLV3 + " enabled on any of the port: " + sslv3EnabledHosts.size() + " of "
+                + hostNames.size() + " " + sslv3EnabledHosts);
+        return true;
+    }
+
+    /**
+     * SSH up stage - start SSH service on the host, which is needed to establish SSH Connection with it
+     */
+    private boolean
+    sshUpStage(HostInfoHelper.HostsInfoHolderClass hostInfo, HostConfigContext hostCtx) throws Exception
+    {
+        // Name as per the inventory index, as given in hosts info otherwise
+        hostCtx.hostName = (hostCtx.hostEntry != null) ? hostCtx.hostEntry.name : hostInfo.hostName;
+
+        System.out.println(
+            "Try to start SSH Service on host: " + hostCtx.hostName + ", if its not started already. "
+                + "This is needed to establish SSH Connection with ESXi host");
+        if (startSSHService(hostCtx, hostCtx.hostSys)) {
+            return true;
+        }
+
+        System.err.println(
+            SSH_SERVICE + " Service could not be started on host: " + hostCtx.hostName
+                + ", which is a must to continue!");
+        return false;
+    }
+
+    /**
+     * Login & version check stage - get SSHConnection for host and check the version of ESXi host, to
+     * determine if SSL toggling is supported
+     */
+    private boolean
+    versionCheckStage(HostInfoHelper.HostsInfoHolderClass hostInfo, HostConfigContext hostCtx) throws Exception
+    {
+        boolean sslConfigSuppportedHost = false;
+
+        System.out.println("Logging into host: " + hostCtx.hostName + " through SSH");
+        try {
+            hostCtx.sshConn = SSHConnectionPool.getSharedPool()
+                .borrowConnection(hostCtx.hostName, hostInfo.username, hostInfo.password);
         } catch (Exception e) {
-            System.err.println("[Execute Script Flow] Caught exception: " + e.getLocalizedMessage());
+            System.err.println(
+                "Please check ESXi username/password information provided is indeed correct");
+        }
+        if (hostCtx.sshConn != null) {
+            if (!disableESXiVerCheck) {
+                sslConfigSuppportedHost = hostVerCheckerForSslSupport(hostCtx);
+            } else {
+                System.out.println("As requested, ESXi version check is SKIPPED");
+                sslConfigSuppportedHost = true;
+            }
+        } else {
+            System.err
+                .println("Unable to log into host: " + hostCtx.hostName + " through SSH");
+        }
+
+        if (sslConfigSuppportedHost && (hostCtx.is51Host || hostCtx.is50Host)) {
+            /*
+             * remove from default supported protocol list: 51 supports only TLSv10.
+             * Only this host's copy of the lists is trimmed, other hosts are not affected
+             */
+            hostCtx.defaultSecProtoList.remove(PROTO_TLS11);
+            hostCtx.defaultSecProtoList.remove(PROTO_TLS12);
+            hostCtx.secProtosToEnable.remove(PROTO_TLS11);
+            hostCtx.secProtosToEnable.remove(PROTO_TLS12);
+        }
+
+        return sslConfigSuppportedHost;
+    }
+
+    /**
+     * Configure & verify stage - configure SSL/TLS security protocols on all services/ports of the host,
+     * verify the same, and revert the changes if any of the port failed. Returns true if all the ports
+     * were configured as requested
+     */
+    private boolean
+    configureStage(HostInfoHelper.HostsInfoHolderClass hostInfo, HostConfigContext hostCtx) throws Exception
+    {
+        // Services/port to configure
+        Map<Integer, List<String>> userMap_secProtoToEnableOnServices = new LinkedHashMap<Integer, List<String>>();
+        userMap_secProtoToEnableOnServices.put(AUTHD_PORT, hostCtx.secProtosToEnable);
+        userMap_secProtoToEnableOnServices.put(RHTTP_PROXY_PORT, hostCtx.secProtosToEnable);
+        userMap_secProtoToEnableOnServices.put(SFCBD_PORT, hostCtx.secProtosToEnable);
+        userMap_secProtoToEnableOnServices.put(VSAN_VP_PORT, hostCtx.secProtosToEnable);
+        if (hostCtx.is51Host || hostCtx.is50Host) {
+            // There is NO vSanvpd in 50/51
+            userMap_secProtoToEnableOnServices.remove(VSAN_VP_PORT);
+        }
+        int serviceCount = userMap_secProtoToEnableOnServices.size();
+
+        List<HostSSLResultHolderClass> allPortsResultHolder =
+            new ArrayList<HostSSLResultHolderClass>();
+        hostCtx.enabledInpSecProtoMap =
+            Collections.synchronizedMap(new LinkedHashMap<Integer, List<String>>());
+        journalRecord(hostCtx.hostName, null, HostsConfigJournal.HOST_STARTED, hostCtx.secProtosToEnable.toString());
+
+        /*
+         * On resume, ports which were configured & verified before the run was interrupted are not
+         * touched again. They are still part of the rollback, if any other port fails
+         */
+        int resumedPortCount = 0;
+        if (journal != null) {
+            Map<Integer, String[]> verifiedPorts = journal.getVerifiedPorts(hostCtx.hostName);
+            for (Integer verifiedPort : verifiedPorts.keySet()) {
+                if (userMap_secProtoToEnableOnServices.remove(verifiedPort) != null) {
+                    String[] protoLists = verifiedPorts.get(verifiedPort);
+                    System.out.println(
+                        "Port: " + verifiedPort + " on host: " + hostCtx.hostName
+                            + " was already configured as per journal, SKIPPING it");
+                    hostCtx.enabledInpSecProtoMap.put(verifiedPort, HostsConfigJournal.parseProtoList(protoLists[0]));
+
+                    HostSSLResultHolderClass individualPortResultClassObj = new HostSSLResultHolderClass();
+                    individualPortResultClassObj.port = verifiedPort;
+                    individualPortResultClassObj.beforeProtoList = protoLists[0];
+                    individualPortResultClassObj.afterProtoList = protoLists[1];
+                    allPortsResultHolder.add(individualPortResultClassObj);
+                    ++resumedPortCount;
+                }
+            }
+        }
+
+        System.out.println(
+            "\n******************************************************************************");
+        System.out.println("\t\t\tHost : " + hostCtx.hostName);
+        System.out.println(
+            "******************************************************************************");
+
+        /*
+         * Iterate through user provided list of
+         * ports and protocols to enable on each
+         * of the port
+         */
+        Map<Integer, Boolean> portsConfigResult = configurePorts(
+            hostCtx,
+            userMap_secProtoToEnableOnServices,
+            Collections.synchronizedList(allPortsResultHolder));
+
+        int successfulPortCount = resumedPortCount;
+        for (Boolean isPortConfigSuccessful : portsConfigResult.values()) {
+            if (isPortConfigSuccessful != null && isPortConfigSuccessful) {
+                ++successfulPortCount;
+            }
         }
 
         /*
-         *  If standalone host, NO need to print ALL hosts result, as we would have previously already done
-         *  the same.
+         * In case of configuration failure of any single port, revert
+         * the configuration changes made on the host
          */
-        if (!isStandAloneHost) {
-            printSslConfigResult(null);
+        boolean hostConfigured = false;
+        if (portsConfigResult.containsValue(false)) {
+            // Try reverting the configuration changes made to other ports
+            System.out.println(
+                "Configuration update was not successful, check & revert the changes made, if any");
+            restoreConfiguration(hostCtx);
+            journalRecord(hostCtx.hostName, null, HostsConfigJournal.HOST_FAILED, null);
+        } else if (successfulPortCount == serviceCount) {
+            // All operations went through fine, populate the result holder object
+            hostSSLconfigResultHolderObj.put(hostCtx.hostName, allPortsResultHolder);
+            journalRecord(hostCtx.hostName, null, HostsConfigJournal.HOST_DONE, null);
+            hostConfigured = true;
+        } else {
+            journalRecord(hostCtx.hostName, null, HostsConfigJournal.HOST_FAILED, null);
+        }
+
+        return hostConfigured;
+    }
+
+    /**
+     * Teardown stage - hand back the SSHConnection, restore SSH service state and print the final SSL
+     * Configuration result of host. Every host handed over to the pipeline goes through this stage
+     */
+    private void
+    teardownStage(HostInfoHelper.HostsInfoHolderClass hostInfo, HostConfigContext hostCtx)
+    {
+        String hostName = (hostCtx.hostName != null) ? hostCtx.hostName : hostInfo.hostName;
+
+        // Hand back the SSHConnection to the pool, its of no use once SSH service is stopped
+        if (hostCtx.sshConn != null) {
+            if (hostCtx.cleanupStopSSHService) {
+                SSHConnectionPool.getSharedPool().invalidateConnection(hostCtx.sshConn);
+            } else {
+                SSHConnectionPool.getSharedPool().releaseConnection(hostCtx.sshConn);
+            }
+            hostCtx.sshConn = null;
+        }
 
-            // And print the result into file
+        // Cleanup- Restore SSH service state
+        if (hostCtx.cleanupStopSSHService == true) {
+            restoreSSHServiceState(hostName, hostCtx.hostSys);
+        }
+
+        // Cleanup- Stop watching services information of the host
+        if (hostCtx.hostSys != null) {
             try {
-                if (hostSSLconfigResultHolderObj != null && hostSSLconfigResultHolderObj.size() > 0) {
-                    HostInfoHelper.createHostsSSLConfigResultFile(hostSSLconfigResultHolderObj, tls_protos_enable);
+                serviceStateCache.release(getHostServiceSystem(hostCtx.hostSys));
+            } catch (Exception e) {
+                // ignored, watch goes away along with the session anyway
+            }
+        }
+
+        // cleanup the objects
+        hostCtx.hostName = null;
+        hostCtx.hostSys = null;
+        hostCtx.enabledInpSecProtoMap = null;
+
+        /*
+         * Print the final SSL Configuration result of host, and write it into result file
+         */
+        printSslConfigResult(hostName);
+        reportHostResult(hostName);
+    }
+
+    /**
+     * Configure all services/ports of a host. Services are independent of each other, hence every
+     * port is configured on its own thread, over its own SSH sessions of the host's Connection.
+     * Returns configuration result of each port (null, if port configuration was not attempted)
+     */
+    private Map<Integer, Boolean>
+    configurePorts(final HostConfigContext hostCtx,
+                   Map<Integer, List<String>> servicesToConfigure,
+                   final List<HostSSLResultHolderClass> allPortsResultHolder) throws InterruptedException
+    {
+        Map<Integer, Boolean> portsConfigResult = new LinkedHashMap<Integer, Boolean>();
+        Map<Integer, Future<Boolean>> portTasks = new LinkedHashMap<Integer, Future<Boolean>>();
+        List<Integer> deferredPorts = new ArrayList<Integer>();
+
+        ExecutorService portsExecutor = Executors.newFixedThreadPool(servicesToConfigure.size());
+        try {
+            for (final Integer servicePort : servicesToConfigure.keySet()) {
+                final List<String> tempSecProtosToEnable = servicesToConfigure.get(servicePort);
+
+                /*
+                 * On 5.0, its Hostd service that takes all incoming request on ESXi. Restarting hostd
+                 * would break esxcli commands run for other ports in the meantime, hence configure
+                 * it only after rest of the ports are done.
+                 */
+                if (hostCtx.is50Host && servicePort == RHTTP_PROXY_PORT) {
+                    deferredPorts.add(servicePort);
+                    continue;
+                }
+
+                portTasks.put(servicePort, portsExecutor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        return configurePort(hostCtx, servicePort, tempSecProtosToEnable, allPortsResultHolder);
+                    }
+                }));
+            }
+
+            // Wait for all ports to complete
+            for (Integer servicePort : portTasks.keySet()) {
+                try {
+                    portsConfigResult.put(servicePort, portTasks.get(servicePort).get());
+                } catch (ExecutionException e) {
+                    System.err.println(
+                        "Caught an exception while configuring port: " + servicePort + " on host: "
+                            + hostCtx.hostName);
+                    e.getCause().printStackTrace();
+                    portsConfigResult.put(servicePort, false);
+                }
+            }
+
+            for (Integer servicePort : deferredPorts) {
+                // SKIP further configuration of ports on the host, if any of the port failed
+                if (portsConfigResult.containsValue(false)) {
+                    break;
+                }
+                try {
+                    portsConfigResult.put(
+                        servicePort,
+                        configurePort(hostCtx, servicePort, servicesToConfigure.get(servicePort), allPortsResultHolder));
+                } catch (Exception e) {
+                    System.err.println(
+                        "Caught an exception while configuring port: " + servicePort + " on host: "
+                            + hostCtx.hostName);
+                    e.printStackTrace();
+                    portsConfigResult.put(servicePort, false);
+                }
+            }
+        } finally {
+            portsExecutor.shutdown();
+        }
+
+        return portsConfigResult;
+    }
+
+    /**
+     * Configure security protocols on a single service/port of a host
+     * Returns true/false as per configuration result, null if configuration was not attempted
+     */
+    private Boolean
+    configurePort(HostConfigContext hostCtx,
+                  Integer servicePort,
+                  List<String> tempSecProtosToEnable,
+                  List<HostSSLResultHolderClass> allPortsResultHolder) throws Exception
+    {
+        Boolean isPortConfigSuccessful = null;
+
+        switch (servicePort) {
+        case RHTTP_PROXY_PORT:
+        case AUTHD_PORT:
+        case SFCBD_PORT:
+        case VSAN_VP_PORT:
+            System.out.println(
+                "\n**** Service/Port to Configure : "
+                    + portToServiceNameMap.get(servicePort) + "(" + servicePort
+                    + ") **** ");
+
+            if (servicePort == VSAN_VP_PORT) {
+                boolean vsanVpServiceStarted = false;
+                if (!(SSHUtil
+                    .isServiceRunning(hostCtx.sshConn, SERVICE_VSAN_VP))) {
+                    vsanVpServiceStarted = SSHUtil
+                        .startService(hostCtx.sshConn, SERVICE_VSAN_VP);
+                } else {
+                    vsanVpServiceStarted = true;
+                }
+
+                if (!vsanVpServiceStarted) {
+                    System.err
+                        .println("Could not find VSAN_VP service in running state");
+                    break;
+                }
+            }
+
+            boolean sslFoundEnabledForDisableOp = false;
+            System.out.println(
+                "Scan and obtain list of protocols that are currently enabled...");
+            List<String> secProtosBeforeChange = null;
+
+            if (servicePort == AUTHD_PORT) {
+                secProtosBeforeChange = authdProtocolFetcher(hostCtx, servicePort);
+            } else {
+                secProtosBeforeChange = securityProtocolScanner(
+                    hostCtx.hostName,
+                    servicePort);
+            }
+            journalRecord(
+                hostCtx.hostName,
+                servicePort,
+                HostsConfigJournal.PORT_SCANNED,
+                String.valueOf(secProtosBeforeChange));
+
+            if (!enableSsl) {
+                if (secProtosBeforeChange.contains(PROTO_SSLV3)) {
+                    // we found SSLv3 enabled, we need to disable it
+                    sslFoundEnabledForDisableOp = true;
+                } else {
+                    System.out.println(PROTO_SSLV3 + " is already disabled");
+                    System.out.println("------------------------------------------");
+                    System.out.println("List of security protocols currenty enabled");
+                    System.out.println(secProtosBeforeChange.toString());
+                    System.out.println("------------------------------------------");
+                    isPortConfigSuccessful = true;
+                    hostCtx.enabledInpSecProtoMap.put(servicePort, secProtosBeforeChange);
+
+                    // Store the before, after TLS proto information, for printing purpose
+                    HostSSLResultHolderClass individualPortResultClassObj =
+                        new HostSSLResultHolderClass();
+                    individualPortResultClassObj.port = servicePort;
+                    individualPortResultClassObj.afterProtoList = secProtosBeforeChange.toString();
+                    individualPortResultClassObj.beforeProtoList = secProtosBeforeChange.toString();
+                    allPortsResultHolder.add(individualPortResultClassObj);
+                    journalRecord(
+                        hostCtx.hostName,
+                        servicePort,
+                        HostsConfigJournal.PORT_VERIFIED,
+                        individualPortResultClassObj.beforeProtoList + "|" + individualPortResultClassObj.afterProtoList);
+                }
+            }
+
+            if (enableSsl || sslFoundEnabledForDisableOp) {
+
+                if (servicePort == AUTHD_PORT) {
+                    isPortConfigSuccessful = updateAuthdServiceSecProto(
+                        hostCtx,
+                        servicePort,
+                        tempSecProtosToEnable,
+                        secProtosBeforeChange);
+                } else {
+                    isPortConfigSuccessful = updateESXiServiceSecProto(
+                        hostCtx,
+                        servicePort,
+                        tempSecProtosToEnable,
+                        secProtosBeforeChange);
+                }
+                if (hostCtx.enabledInpSecProtoMap.containsKey(servicePort)) {
+                    journalRecord(
+                        hostCtx.hostName,
+                        servicePort,
+                        HostsConfigJournal.PORT_UPDATED,
+                        String.valueOf(hostCtx.enabledInpSecProtoMap.get(servicePort)));
+                }
+
+                if (isPortConfigSuccessful) {
+
+                    // Store the before, after TLS proto information, for printing
+                    // purpose
+                    HostSSLResultHolderClass individualPortResultClassObj = new HostSSLResultHolderClass();
+                    individualPortResultClassObj.port = servicePort;
+                    individualPortResultClassObj.afterProtoList = tempSecProtosToEnable
+                        .toString();
+                    individualPortResultClassObj.beforeProtoList = hostCtx.enabledInpSecProtoMap
+                        .get(servicePort).toString();
+                    allPortsResultHolder.add(individualPortResultClassObj);
+                    journalRecord(
+                        hostCtx.hostName,
+                        servicePort,
+                        HostsConfigJournal.PORT_VERIFIED,
+                        individualPortResultClassObj.beforeProtoList + "|" + individualPortResultClassObj.afterProtoList);
                 }
-            } catch (IOException e) {
-                System.err.println("Caught an exception while writing TLS Configuration result into file");
-                e.printStackTrace();
             }
+
+            break;
+
+        default:
+            System.err.println(
+                "List contains invalid Service Port (" + servicePort
+                    + "( or Service of which configuration"
+                    + " is NOT supported yet");
+            break;
+        } // End of switch loop
+
+        return isPortConfigSuccessful;
+    }
+
+    /*
+     * Record a step of the host into journal, if journal is in use
+     */
+    private void
+    journalRecord(String hostName, Integer port, String step, String detail)
+    {
+        HostsConfigJournal tempJournal = journal;
+        if (tempJournal != null) {
+            tempJournal.record(hostName, port, step, detail);
         }
-
-        return true;
     }
 
     /**
-     * Print SSL Configuration result of provided or all hosts
+     * Print SSL Configuration result of provided host
      */
     private void
     printSslConfigResult(String hostName)
     {
         try {
-            if (hostSSLconfigResultHolderObj != null && hostSSLconfigResultHolderObj.size() > 0) {
-                if (hostName == null) {
-                    System.out.println("@@@@@@@@@@@@@@@@@ ALL HOSTS SSL CONFIGURATION RESULT @@@@@@@@@@@@@@@@@");
-                    for (String tempHostNameResultObj : hostSSLconfigResultHolderObj.keySet()) {
-                            System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
-                            System.out.println(" SSL CONFIGURATION RESULT FOR HOST: " + tempHostNameResultObj);
-                            System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
-                            System.out.println("Protocol configuration (as requested by user) : SSLv3 - " + (enableSsl?"enable":"disable") + "\n");
-
-                            ResultTablePrinter resultObj = new ResultTablePrinter();
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-                            resultObj.addLine("SERVICE NAME", "PORT", "Before SSL/TLS Protocols", "After SSL/TLS Protocols");
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-
-                            for (HostSSLResultHolderClass tempTlsResultObj : hostSSLconfigResultHolderObj
-                                .get(tempHostNameResultObj)) {
-                                resultObj.addLine(
-                                    portToServiceNameMap.get(tempTlsResultObj.port),
-                                    tempTlsResultObj.port.toString(),
-                                    tempTlsResultObj.beforeProtoList,
-                                    tempTlsResultObj.afterProtoList);
-                            }
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-                            resultObj.print();
-                    }
-                } else {
-                    for (String tempHostNameResultObj : hostSSLconfigResultHolderObj.keySet()) {
-                        if (tempHostNameResultObj.equals(hostName)) {
-                            System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
-                            System.out.println(" SSL CONFIGURATION RESULT FOR HOST: " + tempHostNameResultObj);
-                            System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
-                            System.out.println("Protocol configuration (as requested by user) : SSLv3 - " + (enableSsl?"enable":"disable") + "\n");
-
-                            ResultTablePrinter resultObj = new ResultTablePrinter();
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-                            resultObj.addLine("SERVICE NAME", "PORT", "Before SSL/TLS Protocols", "After SSL/TLS Protocols");
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-
-                            for (HostSSLResultHolderClass tempTlsResultObj : hostSSLconfigResultHolderObj
-                                .get(tempHostNameResultObj)) {
-                                resultObj.addLine(
-                                    portToServiceNameMap.get(tempTlsResultObj.port),
-                                    tempTlsResultObj.port.toString(),
-                                    tempTlsResultObj.beforeProtoList,
-                                    tempTlsResultObj.afterProtoList);
-                            }
-                            resultObj.addLine("------------", "----", "------------------------", "-----------------------");
-                            resultObj.print();
-                        }
-                    }
+            List<HostSSLResultHolderClass> hostResult =
+                (hostName != null) ? hostSSLconfigResultHolderObj.get(hostName) : null;
+            if (hostResult != null) {
+                System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+                System.out.println(" SSL CONFIGURATION RESULT FOR HOST: " + hostName);
+                System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+                System.out.println("Protocol configuration (as requested by user) : SSLv3 - " + (enableSsl?"enable":"disable") + "\n");
+
+                ResultTablePrinter resultObj = new ResultTablePrinter();
+                resultObj.addLine("------------", "----", "------------------------", "-----------------------");
+                resultObj.addLine("SERVICE NAME", "PORT", "Before SSL/TLS Protocols", "After SSL/TLS Protocols");
+                resultObj.addLine("------------", "----", "------------------------", "-----------------------");
+
+                for (HostSSLResultHolderClass tempTlsResultObj : hostResult) {
+                    resultObj.addLine(
+                        portToServiceNameMap.get(tempTlsResultObj.port),
+                        tempTlsResultObj.port.toString(),
+                        tempTlsResultObj.beforeProtoList,
+                        tempTlsResultObj.afterProtoList);
                 }
+                resultObj.addLine("------------", "----", "------------------------", "-----------------------");
+                resultObj.print();
             }
         } catch (Exception e) {
             System.err.println("Caught an exception, while printing out SSL Configuration result");
         }
     }
 
+    /*
+     * Append the SSL Configuration result of host into result file, and let go of it - so that memory
+     * does not grow with the number of hosts
+     */
+    private void
+    reportHostResult(String hostName)
+    {
+        if (resultWriter == null || hostName == null) {
+            return;
+        }
+        List<HostSSLResultHolderClass> hostResult = hostSSLconfigResultHolderObj.remove(hostName);
+        if (hostResult != null) {
+            try {
+                resultWriter.writeHost(hostName, hostResult);
+            } catch (IOException e) {
+                System.err.println("Caught an exception while writing TLS Configuration result of host: " + hostName
+                    + " into file: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Check ESXi hosts version to determine if SSL configuration is supported or not
      * SSL Configuration supported on 5.5P07, 55P08, 51P09, 50P13 onwards
      */
     private boolean
-    hostVerCheckerForSslSupport()
+    hostVerCheckerForSslSupport(HostConfigContext hostCtx)
     {
         String esxi_version = null;
         Integer esxi_build = null;
@@ -867,36 +1527,47 @@ public class ESXi5xSSLConfigUpdater
         Integer supportedBuildNumber = null;
 
         try {
-            String verCmdoutput = SSHUtil.getSSHOutputStream(sshConnObjCurrentHost, CMD_VERSION_CHECK);
-
-            if (verCmdoutput != "" || verCmdoutput != null) {
-                String[] fullVersionString = verCmdoutput.split("\n");
-                for (String tempfullVerString : fullVersionString) {
-                    String productInfo = tempfullVerString.replaceAll("( )+", "").trim().toLowerCase();
-                    if (productInfo.contains("version")) {
-                        esxi_version = productInfo.split(":")[1];
-                        if (esxi_version.contains(SUPPORTED_55P07_VERSION)) {
-                            supportedVersion = SUPPORTED_55P07_VERSION;
-                            supportedUpdateVersion = SUPPORTED_55P07_UPDATE_VER;
-                            supportedBuildNumber = SUPPORTED_55P07_BUILD_NUMBER;
-                        } else if (esxi_version.contains(SUPPORTED_51_VERSION)) {
-                            is51Host = true;
-                            supportedVersion = SUPPORTED_51_VERSION;
-                            supportedUpdateVersion = SUPPORTED_51_UPDATE_VER;
-                            supportedBuildNumber = SUPPORTED_51_BUILD_NUMBER;
-                        } else if (esxi_version.contains(SUPPORTED_50_VERSION)) {
-                            is50Host = true;
-                            supportedVersion = SUPPORTED_50_VERSION;
-                            supportedUpdateVersion = SUPPORTED_50_UPDATE_VER;
-                            supportedBuildNumber = SUPPORTED_50_BUILD_NUMBER;
-                        }
-                    } else if (productInfo.contains("build")) {
-                        esxi_build = Integer.parseInt(productInfo.split(":")[1].replace("releasebuild-", ""));
-                    } else if (productInfo.contains("update")) {
-                        esxi_update = Integer.parseInt(productInfo.split(":")[1]);
-                    }
+            // Version & build from host's product info, falls back to esxcli when it is not available
+            HostVersionResolver.HostVersion hostVersion =
+                versionResolver.resolve(hostCtx.hostEntry, hostCtx.sshConn, false);
+            if (hostVersion == null) {
+                System.err.println("Unable to determine version of ESXi host: " + hostCtx.hostName);
+                return false;
+            }
+
+            esxi_version = hostVersion.version;
+            if (esxi_version.contains(SUPPORTED_55P07_VERSION)) {
+                supportedVersion = SUPPORTED_55P07_VERSION;
+                supportedUpdateVersion = SUPPORTED_55P07_UPDATE_VER;
+                supportedBuildNumber = SUPPORTED_55P07_BUILD_NUMBER;
+            } else if (esxi_version.contains(SUPPORTED_51_VERSION)) {
+                hostCtx.is51Host = true;
+                supportedVersion = SUPPORTED_51_VERSION;
+                supportedUpdateVersion = SUPPORTED_51_UPDATE_VER;
+                supportedBuildNumber = SUPPORTED_51_BUILD_NUMBER;
+            } else if (esxi_version.contains(SUPPORTED_50_VERSION)) {
+                hostCtx.is50Host = true;
+                supportedVersion = SUPPORTED_50_VERSION;
+                supportedUpdateVersion = SUPPORTED_50_UPDATE_VER;
+                supportedBuildNumber = SUPPORTED_50_BUILD_NUMBER;
+            }
+
+            /*
+             * Update level is not part of product info. It matters only when version & build do not
+             * already rule out the host - then it is taken from the cache, or esxcli over SSH
+             */
+            if (supportedVersion != null && hostVersion.update == null && hostVersion.build != null
+                && hostVersion.build.compareTo(supportedBuildNumber) >= 0) {
+                HostVersionResolver.HostVersion fullHostVersion =
+                    versionResolver.resolve(hostCtx.hostEntry, hostCtx.sshConn, true);
+                if (fullHostVersion != null) {
+                    hostVersion = fullHostVersion;
                 }
             }
+            esxi_build = hostVersion.build;
+            esxi_update = hostVersion.update;
+            String esxi_fullVersion = esxi_version + ((esxi_update != null) ? ", Update-" + esxi_update : "")
+                + " Build-" + esxi_build;
 
             /*
              * Returns 0 : if current version == supported Version
@@ -910,17 +1581,16 @@ public class ESXi5xSSLConfigUpdater
             }
 
             if ((isVerSupported == 0 &&
+                esxi_update != null && esxi_build != null &&
                 (esxi_update.compareTo(supportedUpdateVersion) >= 0) &&
                 (esxi_build.compareTo(supportedBuildNumber) >= 0))) {
                 // Version check done - supported version of ESXi for SSL toggling
                 System.out.println(
-                    "This ESXi host (" + esxi_version + ", Update-" + esxi_update + " Build-" + esxi_build
-                        + ") is supported for SSL security protocol configuration");
+                    "This ESXi host (" + esxi_fullVersion + ") is supported for SSL security protocol configuration");
                 sslConfigSupported = true;
             } else {
                 System.err.println(
-                    "This ESXi host (" + esxi_version + ", Update-" + esxi_update + " Build-" + esxi_build
-                        + ") is NOT supported for SSL security protocol configuration");
+                    "This ESXi host (" + esxi_fullVersion + ") is NOT supported for SSL security protocol configuration");
                 if (supportedVersion != null) {
                     System.err.println(
                         "SSL Security protocol configuration is supported on version: " + supportedVersion + " Update-"
@@ -977,15 +1647,15 @@ public class ESXi5xSSLConfigUpdater
      * Restore previous configuration, as it was before start of protocol updation
      */
     private void
-    restoreConfiguration()
+    restoreConfiguration(HostConfigContext hostCtx)
     {
-        if ((this.enabledInpSecProtoMap != null && this.enabledInpSecProtoMap.size() > 0)) {
+        if ((hostCtx.enabledInpSecProtoMap != null && hostCtx.enabledInpSecProtoMap.size() > 0)) {
             /*
              *  Remove the host related information - to throw away all information we stored earlier
              *  while port configuration was done on this host. Now this object will hold information
              *  only regarding roll back done for host where we fail to configure SSL protocols for all ports.
              */
-            hostSSLconfigResultHolderObj.remove(currentHostName);
+            hostSSLconfigResultHolderObj.remove(hostCtx.hostName);
 
             List<HostSSLResultHolderClass> allPortsResultHolder =
                 new ArrayList<HostSSLResultHolderClass>();
@@ -995,8 +1665,8 @@ public class ESXi5xSSLConfigUpdater
              * Iterate through user provided list of ports and protocols to
              * enable on each of the port
              */
-            for (Integer restoreServicePort : this.enabledInpSecProtoMap.keySet()) {
-                List<String> tempRestoreSecProtos = this.enabledInpSecProtoMap.get(restoreServicePort);
+            for (Integer restoreServicePort : hostCtx.enabledInpSecProtoMap.keySet()) {
+                List<String> tempRestoreSecProtos = hostCtx.enabledInpSecProtoMap.get(restoreServicePort);
 
                 switch (restoreServicePort) {
                 case RHTTP_PROXY_PORT:
@@ -1008,15 +1678,15 @@ public class ESXi5xSSLConfigUpdater
                     hostdPortResultClassObj.port = restoreServicePort;
                     hostdPortResultClassObj.beforeProtoList = tempRestoreSecProtos.toString();
 
-                    if (is50Host || is51Host) {
-                        if (restoreESXiServiceSecProto(restoreServicePort, tempRestoreSecProtos)) {
+                    if (hostCtx.is50Host || hostCtx.is51Host) {
+                        if (restoreESXiServiceSecProto(hostCtx, restoreServicePort, tempRestoreSecProtos)) {
                             hostdPortResultClassObj.afterProtoList = tempRestoreSecProtos.toString();
                         } else {
                             hostdPortResultClassObj.afterProtoList = "NULL (Pls Check logs)";
                         }
                     } else {
                         // 55P07 host, to revert configuration changes : Need to revert configuration file
-                        if (restoreHostdSecProto(restoreServicePort, tempRestoreSecProtos)) {
+                        if (restoreHostdSecProto(hostCtx, restoreServicePort, tempRestoreSecProtos)) {
                             hostdPortResultClassObj.afterProtoList = tempRestoreSecProtos.toString();
                         } else {
                             hostdPortResultClassObj.afterProtoList = "NULL (Pls Check logs)";
@@ -1035,7 +1705,7 @@ public class ESXi5xSSLConfigUpdater
                     authdPortResultClassObj.port = restoreServicePort;
                     authdPortResultClassObj.beforeProtoList = tempRestoreSecProtos.toString();
 
-                    if(restoreAuthdSecProto(restoreServicePort, tempRestoreSecProtos)) {
+                    if(restoreAuthdSecProto(hostCtx, restoreServicePort, tempRestoreSecProtos)) {
                         authdPortResultClassObj.afterProtoList = tempRestoreSecProtos.toString();
                     } else {
                         authdPortResultClassObj.afterProtoList = "NULL (Pls Check logs)";
@@ -1052,7 +1722,7 @@ public class ESXi5xSSLConfigUpdater
                     sfcbdPortResultClassObj.port = restoreServicePort;
                     sfcbdPortResultClassObj.beforeProtoList = tempRestoreSecProtos.toString();
 
-                    if(restoreSFCBDSecProto(restoreServicePort, tempRestoreSecProtos)) {
+                    if(restoreSFCBDSecProto(hostCtx, restoreServicePort, tempRestoreSecProtos)) {
                         sfcbdPortResultClassObj.afterProtoList = tempRestoreSecProtos.toString();
                     } else {
                         sfcbdPortResultClassObj.afterProtoList = "NULL (Pls Check logs)";
@@ -1069,7 +1739,7 @@ public class ESXi5xSSLConfigUpdater
                     vsanPortResultClassObj.port = restoreServicePort;
                     vsanPortResultClassObj.beforeProtoList = tempRestoreSecProtos.toString();
 
-                    if (restoreESXiServiceSecProto(restoreServicePort, tempRestoreSecProtos)) {
+                    if (restoreESXiServiceSecProto(hostCtx, restoreServicePort, tempRestoreSecProtos)) {
                         vsanPortResultClassObj.afterProtoList = tempRestoreSecProtos.toString();
                     } else {
                         vsanPortResultClassObj.afterProtoList = "NULL (Pls Check logs)";
@@ -1080,7 +1750,14 @@ public class ESXi5xSSLConfigUpdater
             }
 
             // All operations completed, populate the result holder object
-            hostSSLconfigResultHolderObj.put(currentHostName, allPortsResultHolder);
+            hostSSLconfigResultHolderObj.put(hostCtx.hostName, allPortsResultHolder);
+            for (HostSSLResultHolderClass restoredPortResult : allPortsResultHolder) {
+                journalRecord(
+                    hostCtx.hostName,
+                    restoredPortResult.port,
+                    HostsConfigJournal.PORT_RESTORED,
+                    restoredPortResult.afterProtoList);
+            }
 
         } else {
             System.out.println(
@@ -1092,13 +1769,13 @@ public class ESXi5xSSLConfigUpdater
      * Restore AUTHD security protocols
      */
     private boolean
-    restoreAuthdSecProto(Integer restoreServicePort, List<String> tempRestoreSecProtos)
+    restoreAuthdSecProto(HostConfigContext hostCtx, Integer restoreServicePort, List<String> tempRestoreSecProtos)
     {
         boolean restoreDone = false;
         try {
             List<String> currSecProtos = null;
             try {
-                currSecProtos = authdProtocolFetcher(currentHostName, restoreServicePort);
+                currSecProtos = authdProtocolFetcher(hostCtx, restoreServicePort);
             } catch (Exception e) {
                 System.out.println(
                     "Caught exception while fetching currently enabled security protocols, May be service itself is down");
@@ -1117,15 +1794,15 @@ public class ESXi5xSSLConfigUpdater
                 String disabledProtos = GetDisableProtocolString(tempRestoreSecProtos);
                 if (disabledProtos != null) {
                     String authCmdToSetProtos = CMD_AUTHD;
-                    if (is50Host) {
+                    if (hostCtx.is50Host) {
                         authCmdToSetProtos = CMD_AUTHD_50;
-                    } else if (is51Host) {
+                    } else if (hostCtx.is51Host) {
                         authCmdToSetProtos = CMD_AUTHD_51;
                     }
 
                     String fullCmd = authCmdToSetProtos + "\"" + disabledProtos + "\"";
 
-                    if (SSHUtil.executeRemoteSSHCommand(sshConnObjCurrentHost, fullCmd)) {
+                    if (SSHUtil.executeRemoteSSHCommand(hostCtx.sshConn, fullCmd)) {
                         System.out.println("Successfully executed the command for updating security protocol list");
 
                         /*
@@ -1135,7 +1812,7 @@ public class ESXi5xSSLConfigUpdater
                         System.out.println(
                             "Perform Post validation to check if"
                                 + " user expected protocols are indeed persisted ...");
-                        List<String> secProtosAfterChange = authdProtocolFetcher(currentHostName, restoreServicePort);
+                        List<String> secProtosAfterChange = authdProtocolFetcher(hostCtx, restoreServicePort);
 
                         if (secProtoListPostValidater(tempRestoreSecProtos, secProtosAfterChange)) {
                             System.out.println("Successfully enabled : \"" + tempRestoreSecProtos.toString() + "\" "
@@ -1165,6 +1842,19 @@ public class ESXi5xSSLConfigUpdater
         return restoreDone;
     }
 
+    /**
+     * Protocol scanner for the service ports of ESXi hosts. A scanner is not to be shared across threads
+     */
+    private AsyncProtoScanner
+    newProtoScanner()
+    {
+        AsyncProtoScanner scanner = new AsyncProtoScanner();
+
+        // Authd sends a plain text banner line first, and only then starts the TLS handshake
+        scanner.expectBannerOn(AUTHD_PORT);
+        return scanner;
+    }
+
     /**
      * Security Protocol Scanner
      */
@@ -1174,7 +1864,34 @@ public class ESXi5xSSLConfigUpdater
         List<String> secProtocolList = null;
 
         try {
-            List<String> tempSecProtoList = TestSSLServer.SecurityProtoScanner(host, port);
+            InetSocketAddress isa = new InetSocketAddress(host, port);
+            AsyncProtoScanner.TargetResult scanResult = null;
+            long retryDelay = SCAN_RETRY_DELAY_MS;
+            for (int attempt = 1;; attempt++) {
+                scanResult = newProtoScanner().scan(Collections.singletonList(isa)).get(isa);
+                if (!scanResult.protoVersions.isEmpty() || attempt >= SCAN_ATTEMPTS) {
+                    break;
+                }
+
+                /*
+                 * No protocol negotiated. Unless the service rejected the handshakes with an alert (it has no
+                 * protocol enabled - no retry), it is likely still coming up - retry after a while
+                 */
+                TestSSLServer.ProbeOutcome outcome = scanResult.getOutcome();
+                if (outcome == TestSSLServer.ProbeOutcome.ALERT) {
+                    System.err.println("Port: " + port + " on host: " + host + " rejected the handshakes with an alert");
+                    break;
+                }
+                System.out.println(
+                    "Port: " + port + " on host: " + host + " did not answer a handshake (" + outcome + "), retrying in "
+                        + (retryDelay / 1000) + " secs");
+                Thread.sleep(retryDelay);
+                retryDelay *= 2;
+            }
+            if (scanResult.protoVersions.isEmpty()) {
+                System.out.println("No SSL/TLS server at " + isa);
+                return secProtocolList;
+            }
 
             /*
              * Convert the strings according to ESXi side implementation of
@@ -1182,7 +1899,8 @@ public class ESXi5xSSLConfigUpdater
              * used as "tlsv1"
              */
             secProtocolList = new ArrayList<String>();
-            for (String tempProtocol : tempSecProtoList) {
+            for (int version : scanResult.protoVersions) {
+                String tempProtocol = TestSSLServer.versionString(version);
                 if (tempProtocol.equals(TESTSSLSERVER_PROTO_TLS10)) {
                     secProtocolList.add(PROTO_TLS10);
                 } else {
@@ -1196,25 +1914,100 @@ public class ESXi5xSSLConfigUpdater
         return secProtocolList;
     }
 
+    /**
+     * Wait for the port to serve TLS again, after its service has been restarted: service reports
+     * running a while before it starts accepting handshakes. Verification is then not mistaken by
+     * the service still coming up
+     */
+    private void
+    waitForServicePort(String host, int port)
+    {
+        try {
+            long waitStart = System.currentTimeMillis();
+            TestSSLServer.ProbeOutcome outcome = TestSSLServer
+                .awaitTlsReady(new InetSocketAddress(host, port), SSHUtil.getServiceWaitDeadline());
+            if (outcome == TestSSLServer.ProbeOutcome.VERSION || outcome == TestSSLServer.ProbeOutcome.ALERT) {
+                System.out.println(
+                    "Port: " + port + " on host: " + host + " is serving TLS, after "
+                        + (System.currentTimeMillis() - waitStart) + " ms");
+            } else {
+                System.err.println(
+                    "Port: " + port + " on host: " + host + " is not serving TLS yet (" + outcome + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Security protocols enabled on the port, after a change. Targeted probe checks if exactly the
+     * expected protocols are enabled - all its handshakes at the same time; full scan is done only when
+     * it finds otherwise (or the port does not answer properly), to know what is actually enabled
+     */
+    private List<String>
+    securityProtocolVerifier(String host, int port, List<String> expSecProtos)
+    {
+        List<Integer> expVersions = new ArrayList<Integer>();
+        for (String secProto : expSecProtos) {
+            Integer version = protoVersionOf(secProto);
+            if (version == null) {
+                // Not a protocol the targeted probe knows of
+                expVersions = null;
+                break;
+            }
+            expVersions.add(version);
+        }
+
+        if (expVersions != null) {
+            try {
+                if (TestSSLServer.SecurityProtoVerifier(newProtoScanner(), host, port, expVersions)) {
+                    return new ArrayList<String>(expSecProtos);
+                }
+            } catch (Exception e) {
+                System.err.println("[TestSSLServer Verifier] Caught exception while running verifier: " + e.getMessage());
+            }
+        }
+
+        return securityProtocolScanner(host, port);
+    }
+
+    /*
+     * Protocol version, as in ClientHello/ServerHello, of the security protocol string. Null if not known
+     */
+    private Integer
+    protoVersionOf(String secProto)
+    {
+        if (PROTO_SSLV3.equals(secProto)) {
+            return 0x0300;
+        } else if (PROTO_TLS10.equals(secProto)) {
+            return 0x0301;
+        } else if (PROTO_TLS11.equals(secProto)) {
+            return 0x0302;
+        } else if (PROTO_TLS12.equals(secProto)) {
+            return 0x0303;
+        }
+        return null;
+    }
+
     /**
      * TLS Security Protocol configuration method for ... Rhttpproxy/Hostd VSANVP SFCBD services
      */
     private boolean
-    updateESXiServiceSecProto(Integer portNum, List<String> user_secProtosToEnable, List<String> secProtosBeforeChange) throws Exception
+    updateESXiServiceSecProto(HostConfigContext hostCtx, Integer portNum, List<String> user_secProtosToEnable, List<String> secProtosBeforeChange) throws Exception
     {
         boolean isUpdateSuccess = false;
 
         if (secProtosBeforeChange != null) {
             // Check if its valid security protocols combination - to enable
             if (enableSsl) {
-                if (!secProtosBeforeChange.containsAll(defaultSecProtoList)) {
+                if (!secProtosBeforeChange.containsAll(hostCtx.defaultSecProtoList)) {
                     System.err.println(
                         PROTO_SSLV3 + " protocol can not be enabled. Combination of SSL and TLS protocols"
                             + " to enable is NOT supported");
                     secProtosBeforeChange.add(PROTO_SSLV3);
                     System.err.println("Requested : " + secProtosBeforeChange);
                     List<String> supportedList = new ArrayList<>();
-                    supportedList.addAll(defaultSecProtoList);
+                    supportedList.addAll(hostCtx.defaultSecProtoList);
                     supportedList.add(PROTO_SSLV3);
                     System.err.println("Supported : " + supportedList.toString());
                     return false;
@@ -1226,7 +2019,7 @@ public class ESXi5xSSLConfigUpdater
              * enabled - for restoring purpose, if something goes wrong
              * with updation later.
              */
-            enabledInpSecProtoMap.put(portNum, secProtosBeforeChange);
+            hostCtx.enabledInpSecProtoMap.put(portNum, secProtosBeforeChange);
 
             if (secProtoChecker(secProtosBeforeChange, user_secProtosToEnable)) {
                 // Required protocols are ALREADY enabled on port, No need to do anything here, print out exit
@@ -1258,17 +2051,17 @@ public class ESXi5xSSLConfigUpdater
                     String fullCmd = "\"" + disabledProtos + "\"";
                     String serviceName = null;
                     if (portNum == RHTTP_PROXY_PORT) {
-                        if (is50Host) {
+                        if (hostCtx.is50Host) {
                             fullCmd = CMD_HOSTD + fullCmd;
                             serviceName = SERVICE_HOSTD;
-                        } else if (is51Host) {
+                        } else if (hostCtx.is51Host) {
                             fullCmd = CMD_RHTTP_PROXY_51 + fullCmd;
                             serviceName = SERVICE_RHTTPPROXY;
                         } else {
                             // Its 55P07 type of host : follow old way of configuring rhttproxy/hostd config
                             boolean isHostdConfigSuccess = false;
                             try {
-                                isHostdConfigSuccess = updateHostdSecProto(user_secProtosToEnable);
+                                isHostdConfigSuccess = updateHostdSecProto(hostCtx, user_secProtosToEnable);
                             } catch (Exception e) {
                                 System.err.println(
                                     "Caught an exception while updating RHTTPPROXY/HOSTD security Configuration protocols");
@@ -1282,7 +2075,7 @@ public class ESXi5xSSLConfigUpdater
                     } else if (portNum == SFCBD_PORT) {
                         boolean isSfcbdConfigSuccess = false;
                         try {
-                            isSfcbdConfigSuccess = updateSFCBDSecProto(user_secProtosToEnable);
+                            isSfcbdConfigSuccess = updateSFCBDSecProto(hostCtx, user_secProtosToEnable);
                         } catch (Exception e) {
                             System.err
                                 .println("Caught an exception while updating SFCBD security Configuration protocols");
@@ -1291,20 +2084,20 @@ public class ESXi5xSSLConfigUpdater
                     }
 
                     boolean restartedService = false;
-                    if (SSHUtil.executeRemoteSSHCommand(sshConnObjCurrentHost, fullCmd)) {
+                    if (SSHUtil.executeRemoteSSHCommand(hostCtx.sshConn, fullCmd)) {
                         System.out.println("Successfully executed the command for updating security protocol list");
 
                         // Restart services and check if we were indeed successful in applying the changes
                         System.out
                             .println("Trying to restart service: " + serviceName + ", for changes to take effect");
-                        if (is50Host && (portNum == RHTTP_PROXY_PORT)) {
-                            SSHUtil.executeAsyncRemoteSSHCommand(sshConnObjCurrentHost, SERVICE_HOSTD + " stop");
-                            if (SSHUtil.waitTillServiceisStopped(sshConnObjCurrentHost, SERVICE_HOSTD)) {
-                                SSHUtil.executeAsyncRemoteSSHCommand(sshConnObjCurrentHost, SERVICE_HOSTD + " start");
-                                restartedService = SSHUtil.waitTillServiceisStarted(sshConnObjCurrentHost, SERVICE_HOSTD);
+                        if (hostCtx.is50Host && (portNum == RHTTP_PROXY_PORT)) {
+                            SSHUtil.executeAsyncRemoteSSHCommand(hostCtx.sshConn, SERVICE_HOSTD + " stop");
+                            if (SSHUtil.waitTillServiceisStopped(hostCtx.sshConn, SERVICE_HOSTD)) {
+                                SSHUtil.executeAsyncRemoteSSHCommand(hostCtx.sshConn, SERVICE_HOSTD + " start");
+                                restartedService = SSHUtil.waitTillServiceisStarted(hostCtx.sshConn, SERVICE_HOSTD);
                             }
                         } else {
-                            restartedService = SSHUtil.restartService(sshConnObjCurrentHost, serviceName);
+                            restartedService = SSHUtil.restartService(hostCtx.sshConn, serviceName);
                         }
 
                         if (restartedService) {
@@ -1315,7 +2108,11 @@ public class ESXi5xSSLConfigUpdater
                             System.out.println(
                                 "Perform Post validation to check if"
                                     + " user expected protocols show up with security scanner ...");
-                            List<String> secProtosAfterChange = securityProtocolScanner(currentHostName, portNum);
+                            waitForServicePort(hostCtx.hostName, portNum);
+                            List<String> secProtosAfterChange = securityProtocolVerifier(
+                                hostCtx.hostName,
+                                portNum,
+                                user_secProtosToEnable);
 
                             if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
                                 System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString()
@@ -1356,210 +2153,151 @@ public class ESXi5xSSLConfigUpdater
      * @throws Exception
      */
     private boolean
-    updateHostdSecProto(List<String> user_secProtosToEnable) throws Exception
+    updateHostdSecProto(HostConfigContext hostCtx, List<String> user_secProtosToEnable) throws Exception
     {
         boolean configurationSuccess = false;
 
-     // take backup of file
-        System.out.println("Trying to backup file: "
+        /*
+         * Backup, update and verification of config file are sent to the host as a single script
+         */
+        System.out.println("Trying to backup and update file: "
                  + RHTTPPROXY_CONFIG_FILE
-                 + ", before modification");
-        if (SSHUtil.copyFileOnHost(sshConnObjCurrentHost,
-                 RHTTPPROXY_CONFIG_FILE,
-                 RHTTPPROXY_CONFIG_BACKUP_FILE)) {
-           if (SSHUtil.fileExistsOnHost(sshConnObjCurrentHost,
-                    RHTTPPROXY_CONFIG_BACKUP_FILE)) {
-              System.out.println("Took backup of "
-                       + RHTTPPROXY_CONFIG_FILE
-                       + " file. Backed up file name:"
-                       + RHTTPPROXY_CONFIG_BACKUP_FILE);
-              // alter the config file content
-              System.out.println("Performing configuration file updation now...");
-              System.out.println("Trying to update file: "
-                       + RHTTPPROXY_CONFIG_FILE
-                       + ", with SSLOptions entry");
-
-              if (updateConfigFile(sshConnObjCurrentHost,
-                       RHTTPPROXY_CONFIG_FILE)) {
-                 System.out.println("Successfully updated  "
-                          + RHTTPPROXY_CONFIG_FILE
-                          + " file with ssloption");
-
-                 // restart the services
-                 System.out.println("Trying to restart service: "
-                          + SERVICE_RHTTPPROXY
-                          + ", for changes to take effect");
-                 if (SSHUtil.restartService(sshConnObjCurrentHost,
-                          SERVICE_RHTTPPROXY)) {
-                    /*
-                     * Scan and Check if user requested protocols are
-                     * indeed show up as enabled by running security scanner
-                     */
-                    System.out.println(
-                        "Perform Post validation to check if"
-                            + " user expected protocols show up with security scanner ...");
-                    List<String> secProtosAfterChange = securityProtocolScanner(currentHostName, RHTTP_PROXY_PORT);
-
-                    if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
-                        System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString()
-                            + "\" " + "protocols on port: " + RHTTP_PROXY_PORT);
-                        System.out.println("------------------------------------------");
-                        System.out.println("List of security protocols currenty enabled (AFTER change)");
-                        System.out.println(secProtosAfterChange.toString());
-                        System.out.println("------------------------------------------");
-                        configurationSuccess = true;
-                    } else {
-                        System.err.println(
-                            "Failed to enable : \"" + user_secProtosToEnable.toString() + "\" "
-                                + "protocols port: " + RHTTP_PROXY_PORT);
-                    }
-                 } else {
-                     System.err.println("Could not restart service: "
-                         + SERVICE_RHTTPPROXY + " after updating its configuration file");
-                 }
+                 + ", with SSLOptions entry");
+        Map<String, String> configUpdateSteps = new LinkedHashMap<String, String>();
+        configUpdateSteps.put("backup", "cp " + RHTTPPROXY_CONFIG_FILE + " " + RHTTPPROXY_CONFIG_BACKUP_FILE);
+        configUpdateSteps.put("verify-backup", "ls " + RHTTPPROXY_CONFIG_BACKUP_FILE);
+        addConfigFileUpdateSteps(configUpdateSteps, RHTTPPROXY_CONFIG_FILE);
+
+        if (runRemoteSteps(hostCtx, configUpdateSteps)) {
+           System.out.println("Successfully updated  "
+                    + RHTTPPROXY_CONFIG_FILE
+                    + " file with ssloption");
+
+           // restart the services
+           System.out.println("Trying to restart service: "
+                    + SERVICE_RHTTPPROXY
+                    + ", for changes to take effect");
+           if (SSHUtil.restartService(hostCtx.sshConn,
+                    SERVICE_RHTTPPROXY)) {
+              /*
+               * Scan and Check if user requested protocols are
+               * indeed show up as enabled by running security scanner
+               */
+              System.out.println(
+                  "Perform Post validation to check if"
+                      + " user expected protocols show up with security scanner ...");
+              waitForServicePort(hostCtx.hostName, RHTTP_PROXY_PORT);
+              List<String> secProtosAfterChange = securityProtocolVerifier(
+                  hostCtx.hostName,
+                  RHTTP_PROXY_PORT,
+                  user_secProtosToEnable);
+
+              if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
+                  System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString()
+                      + "\" " + "protocols on port: " + RHTTP_PROXY_PORT);
+                  System.out.println("------------------------------------------");
+                  System.out.println("List of security protocols currenty enabled (AFTER change)");
+                  System.out.println(secProtosAfterChange.toString());
+                  System.out.println("------------------------------------------");
+                  configurationSuccess = true;
               } else {
-                 System.err.println("Unable to update  "
-                          + RHTTPPROXY_CONFIG_FILE
-                          + " file with ssloption");
+                  System.err.println(
+                      "Failed to enable : \"" + user_secProtosToEnable.toString() + "\" "
+                          + "protocols port: " + RHTTP_PROXY_PORT);
               }
            } else {
-              System.err.println("Could not find backedup file: "
-                       + RHTTPPROXY_CONFIG_BACKUP_FILE);
+               System.err.println("Could not restart service: "
+                   + SERVICE_RHTTPPROXY + " after updating its configuration file");
            }
         } else {
-           System.err.println("Could not take backup of "
-                    + RHTTPPROXY_CONFIG_FILE + " file");
+           System.err.println("Unable to update  "
+                    + RHTTPPROXY_CONFIG_FILE
+                    + " file with ssloption");
         }
 
         return configurationSuccess;
     }
 
     /**
-     * Update the config file with SSL option to enable SSLv3
-     *
-     * @throws Exception
+     * Add steps to update the config file with SSL option to enable SSLv3 (or to delete
+     * the same, for disabling SSLv3) and to verify the update
      */
-    private boolean updateConfigFile(Connection conn,
-                                     String configFilePath)
+    private void
+    addConfigFileUpdateSteps(Map<String, String> steps, String configFilePath)
     {
-       boolean fileUpdated = false;
-
-       try {
-           if (enableSsl) {
-               // Add new entry
-               System.out.println("Could not find any existing sslOptions entry");
-               System.out.println("Add new sslOptions entry with decimal value: "
-                        + CONFIG_OPT_NEW_ENTRY_VALUE
-                        + " (for user expected security protocols)");
-
-               String tempConfigFilePath = configFilePath + "-TEMP";
-               String CMD_ADD_SSLOPTION_ENTRY = "awk -F\"[<>]\" '/<vmacore>/ {f=1} /^<mm>/ && "
-                        + "!/<vmacore>/ {f=0} f && "
-                        + "/<\\/ssl>/ {q=1} f && q "
-                        + "{print \"          <sslOptions>"
-                        + CONFIG_OPT_NEW_ENTRY_VALUE
-                        + "</sslOptions>\";"
-                        + "f=q=0}1' ";
-
-               // Update the file
-               String fullCmd = CMD_ADD_SSLOPTION_ENTRY + configFilePath + ">"
-                        + tempConfigFilePath + "; mv " + tempConfigFilePath + " "
-                        + configFilePath;
-               if (SSHUtil.executeRemoteSSHCommand(conn, fullCmd)) {
-                  // Check if we indeed were successful in adding the entry
-                  String tempOptionString = "<" + SSL_OPTIONS_TAG + ">"
-                           + CONFIG_OPT_NEW_ENTRY_VALUE + "</" + SSL_OPTIONS_TAG
-                           + ">";
-
-                  if (checkConfigEntry(conn, configFilePath, tempOptionString)) {
-                     fileUpdated = true;
-                  }
-               } else {
-                  System.err.println("Could not execute the command for updating "
-                           + configFilePath);
-               }
-           } else {
-               System.out.println("Check for the sslOptions entry in config file and delete");
-                /*
-                 * Delete the sslOptions entry
-                 * sed -i -e '/<sslOptions>369098111<\/sslOptions>/d' config.xml
-                 */
-                String delSslOpDecValCmd = "sed -i -e '/<sslOptions>" + CONFIG_OPT_NEW_ENTRY_VALUE + "<\\/sslOptions>/d' " + configFilePath;
-
-                if (SSHUtil.executeRemoteSSHCommand(conn, delSslOpDecValCmd)) {
-                    // Check if we indeed were successful in deleting the entry
-                    String tempOptionString = "<" + SSL_OPTIONS_TAG + ">" + CONFIG_OPT_NEW_ENTRY_VALUE + "</"
-                        + SSL_OPTIONS_TAG + ">";
-
-                    if (!checkConfigEntry(conn, configFilePath, tempOptionString)) {
-                        fileUpdated = true;
-                    }
-                } else {
-                    System.err.println("Could not execute the command for updating " + configFilePath);
-                }
-            }
-
-           if (fileUpdated) {
-              System.out.println("Succesfully updated sslOptions entry in config file: "
-                       + configFilePath);
-           } else {
-              System.err.println("Unable to update sslOptions entry in config file: "
-                       + configFilePath);
-           }
-
-       } catch (Exception e) {
-           System.err.println("Caught exception while updating configuration file: " + configFilePath);
-           e.printStackTrace();
-           fileUpdated = false;
-       }
+        String sslOptionEntry = "<" + SSL_OPTIONS_TAG + ">" + CONFIG_OPT_NEW_ENTRY_VALUE + "</" + SSL_OPTIONS_TAG + ">";
+
+        if (enableSsl) {
+            // Add new entry
+            System.out.println("Add new sslOptions entry with decimal value: "
+                     + CONFIG_OPT_NEW_ENTRY_VALUE
+                     + " (for user expected security protocols)");
+
+            String tempConfigFilePath = configFilePath + "-TEMP";
+            String CMD_ADD_SSLOPTION_ENTRY = "awk -F\"[<>]\" '/<vmacore>/ {f=1} /^<mm>/ && "
+                     + "!/<vmacore>/ {f=0} f && "
+                     + "/<\\/ssl>/ {q=1} f && q "
+                     + "{print \"          <sslOptions>"
+                     + CONFIG_OPT_NEW_ENTRY_VALUE
+                     + "</sslOptions>\";"
+                     + "f=q=0}1' ";
+
+            steps.put("update-config", CMD_ADD_SSLOPTION_ENTRY + configFilePath + " > "
+                     + tempConfigFilePath + " && mv " + tempConfigFilePath + " "
+                     + configFilePath);
+
+            // Check if we indeed were successful in adding the entry, exactly once
+            steps.put("verify-config", "[ \"$(grep -c '" + sslOptionEntry + "' " + configFilePath + ")\" -eq 1 ]");
+        } else {
+            System.out.println("Check for the sslOptions entry in config file and delete");
+            /*
+             * Delete the sslOptions entry
+             * sed -i -e '/<sslOptions>369098111<\/sslOptions>/d' config.xml
+             */
+            steps.put("update-config", "sed -i -e '/<sslOptions>" + CONFIG_OPT_NEW_ENTRY_VALUE + "<\\/sslOptions>/d' " + configFilePath);
 
-       return fileUpdated;
+            // Check if we indeed were successful in deleting the entry
+            steps.put("verify-config", "! grep -q '" + sslOptionEntry + "' " + configFilePath);
+        }
     }
 
     /**
-     * Check if user provided entry exists in config file
+     * Run the batched steps on host as a single remote script, and report result of each step
+     * Returns true, only if all the steps were successful
      */
-    private boolean checkConfigEntry(Connection conn,
-                                     String configFilePath,
-                                     String searchStr)
-       throws Exception
+    private boolean
+    runRemoteSteps(HostConfigContext hostCtx, Map<String, String> steps) throws Exception
     {
-       boolean entryFound = false;
-       String searchCmd = "grep \"" + searchStr + "\" " + configFilePath;
-       Map<String, String> cmdOutputMap = SSHUtil.getRemoteSSHCmdOutput(conn,
-                searchCmd);
-
-       String error = cmdOutputMap.get(SSHUtil.SSH_ERROR_STREAM);
-       if (((!error.equals("")) || error != null) && error.length() > 0) {
-          System.err.println("Shell command returned error :" + error);
-          throw new Exception();
-       } else {
-          String output = cmdOutputMap.get(SSHUtil.SSH_OUTPUT_STREAM).trim();
-          if (output.equals(searchStr)) {
-             entryFound = true;
-             System.out.println("Succesfully found entry " + searchStr
-                      + " in config file: " + configFilePath);
-          } else {
-             System.out.println("Could not find entry " + searchStr
-                      + " in config file: " + configFilePath);
-          }
-       }
-
-       return entryFound;
-    }
+        boolean allStepsSuccess = true;
+
+        for (SSHUtil.RemoteStepResult stepResult : SSHUtil
+            .executeRemoteScript(hostCtx.sshConn, steps, SSHUtil.SSHCOMMAND_TIMEOUT)) {
+            if (stepResult.isSuccess()) {
+                System.out.println("[" + hostCtx.hostName + "] Step '" + stepResult.stepName + "' : done");
+            } else if (stepResult.exitStatus == null) {
+                System.err.println("[" + hostCtx.hostName + "] Step '" + stepResult.stepName + "' : not run");
+                allStepsSuccess = false;
+            } else {
+                System.err.println("[" + hostCtx.hostName + "] Step '" + stepResult.stepName
+                    + "' : failed with exit status " + stepResult.exitStatus + "\n" + stepResult.output);
+                allStepsSuccess = false;
+            }
+        }
 
+        return allStepsSuccess;
+    }
 
     /**
      * Restore RHTTPROXY/HOSTD security protocols to default, as it was before
      */
     private boolean
-    restoreHostdSecProto(Integer restoreServicePort, List<String> tempRestoreSecProtos)
+    restoreHostdSecProto(HostConfigContext hostCtx, Integer restoreServicePort, List<String> tempRestoreSecProtos)
     {
         boolean restoreDone = false;
         try {
             List<String> currSecProtos = null;
             try {
-                currSecProtos = securityProtocolScanner(currentHostName, restoreServicePort);
+                currSecProtos = securityProtocolScanner(hostCtx.hostName, restoreServicePort);
             } catch (Exception e) {
                 System.out
                     .println("Caught exception while running security tool scanner, May be service itself is down");
@@ -1576,11 +2314,11 @@ public class ESXi5xSSLConfigUpdater
             // Required protocols needs to be enabled
             System.out.println("Reverting the security protocol configuration changes ...");
 
-            if (SSHUtil.fileExistsOnHost(sshConnObjCurrentHost, RHTTPPROXY_CONFIG_BACKUP_FILE)) {
-                if (SSHUtil.copyFileOnHost(sshConnObjCurrentHost, RHTTPPROXY_CONFIG_BACKUP_FILE, RHTTPPROXY_CONFIG_FILE)) {
+            if (SSHUtil.fileExistsOnHost(hostCtx.sshConn, RHTTPPROXY_CONFIG_BACKUP_FILE)) {
+                if (SSHUtil.copyFileOnHost(hostCtx.sshConn, RHTTPPROXY_CONFIG_BACKUP_FILE, RHTTPPROXY_CONFIG_FILE)) {
                     // restart the services
                     System.out.println("Trying to restart service: " + SERVICE_RHTTPPROXY + ", for changes to take effect");
-                    if (SSHUtil.restartService(sshConnObjCurrentHost, SERVICE_RHTTPPROXY)) {
+                    if (SSHUtil.restartService(hostCtx.sshConn, SERVICE_RHTTPPROXY)) {
 
                         /*
                          * Scan and Check if user requested protocols are indeed
@@ -1589,7 +2327,11 @@ public class ESXi5xSSLConfigUpdater
                         System.out.println(
                             "Perform Post config file updation validation to check if"
                                 + " user expected protocols show up with security scanner ...");
-                        List<String> secProtosAfterChange = securityProtocolScanner(currentHostName, restoreServicePort);
+                        waitForServicePort(hostCtx.hostName, restoreServicePort);
+                        List<String> secProtosAfterChange = securityProtocolVerifier(
+                            hostCtx.hostName,
+                            restoreServicePort,
+                            tempRestoreSecProtos);
 
                         if (secProtoListPostValidater(tempRestoreSecProtos, secProtosAfterChange)) {
                             System.out.println("Successfully restored : \"" + tempRestoreSecProtos.toString() + "\" "
@@ -1627,137 +2369,87 @@ public class ESXi5xSSLConfigUpdater
      * Update security protocol configuration for SFCBD
      */
     private boolean
-    updateSFCBDSecProto(List<String> user_secProtosToEnable) throws Exception
+    updateSFCBDSecProto(HostConfigContext hostCtx, List<String> user_secProtosToEnable) throws Exception
     {
         boolean isUpdateSuccess = false;
 
-        // take backup of file
-        System.out.println("Trying to backup file: " + SFCBD_CONFIG_FILE + ", before modification");
-        if (SSHUtil.copyFileOnHost(sshConnObjCurrentHost, SFCBD_CONFIG_FILE, SFCBD_CONFIG_BACKUP_FILE)) {
-            if (SSHUtil.fileExistsOnHost(sshConnObjCurrentHost, SFCBD_CONFIG_BACKUP_FILE)) {
+        /*
+         * Backup, update and verification of config file are sent to the host as a single script
+         */
+        System.out.println("Trying to backup and update file: " + SFCBD_CONFIG_FILE + ", with Security options entry");
+        Map<String, String> configUpdateSteps = new LinkedHashMap<String, String>();
+        configUpdateSteps.put("backup", "cp " + SFCBD_CONFIG_FILE + " " + SFCBD_CONFIG_BACKUP_FILE);
+        configUpdateSteps.put("verify-backup", "ls " + SFCBD_CONFIG_BACKUP_FILE);
+        addSFCBDConfigFileUpdateSteps(configUpdateSteps, SFCBD_CONFIG_FILE);
+
+        if (runRemoteSteps(hostCtx, configUpdateSteps)) {
+            System.out.println("Successfully updated  " + SFCBD_CONFIG_FILE + " file with Security options");
+
+            // restart the services
+            System.out.println("Trying to restart service: " + SERVICE_SFCBD + ", for changes to take effect");
+            if (SSHUtil.restartService(hostCtx.sshConn, SERVICE_SFCBD)) {
+                /*
+                 * Scan and Check if user requested protocols are indeed
+                 * show up as enabled by running security scanner
+                 */
                 System.out.println(
-                    "Took backup of " + SFCBD_CONFIG_FILE + " file. Backed up file name:" + SFCBD_CONFIG_BACKUP_FILE);
-
-                // alter the config file content
-                System.out.println("Performing configuration file updation now...");
-                System.out.println("Trying to update file: " + SFCBD_CONFIG_FILE + ", with Security options entry");
-
-                if (updateSFCBDConfigFile(SFCBD_CONFIG_FILE, user_secProtosToEnable)) {
-                    System.out.println("Successfully updated  " + SFCBD_CONFIG_FILE + " file with Security options");
-
-                    // restart the services
-                    System.out.println("Trying to restart service: " + SERVICE_SFCBD + ", for changes to take effect");
-                    if (SSHUtil.restartService(sshConnObjCurrentHost, SERVICE_SFCBD)) {
-                        /*
-                         * Scan and Check if user requested protocols are indeed
-                         * show up as enabled by running security scanner
-                         */
-                        System.out.println(
-                            "Perform Post config file updation validation to check if"
-                                + " user expected protocols show up with security scanner ...");
-                        List<String> secProtosAfterChange = securityProtocolScanner(currentHostName, SFCBD_PORT);
-
-                        if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
-                            System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString() + "\" "
-                                + "protocols on SFCBD service on port: " + SFCBD_PORT);
-                            System.out.println("------------------------------------------");
-                            System.out.println("List of security protocols currenty enabled (AFTER change)");
-                            System.out.println(secProtosAfterChange.toString());
-                            System.out.println("------------------------------------------");
-                            isUpdateSuccess = true;
-                        } else {
-                            System.err.println(
-                                "Failed to enable : \"" + user_secProtosToEnable.toString() + "\" "
-                                    + "protocols on SFCBD service on port: " + SFCBD_PORT);
-                        }
-
-                    }
+                    "Perform Post config file updation validation to check if"
+                        + " user expected protocols show up with security scanner ...");
+                waitForServicePort(hostCtx.hostName, SFCBD_PORT);
+                List<String> secProtosAfterChange = securityProtocolVerifier(hostCtx.hostName, SFCBD_PORT, user_secProtosToEnable);
+
+                if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
+                    System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString() + "\" "
+                        + "protocols on SFCBD service on port: " + SFCBD_PORT);
+                    System.out.println("------------------------------------------");
+                    System.out.println("List of security protocols currenty enabled (AFTER change)");
+                    System.out.println(secProtosAfterChange.toString());
+                    System.out.println("------------------------------------------");
+                    isUpdateSuccess = true;
                 } else {
-                    System.err
-                        .println("Unable to update  " + SFCBD_CONFIG_FILE + " file with security protocol options");
+                    System.err.println(
+                        "Failed to enable : \"" + user_secProtosToEnable.toString() + "\" "
+                            + "protocols on SFCBD service on port: " + SFCBD_PORT);
                 }
 
-            } else {
-                System.err.println("Could not find backedup file: " + SFCBD_CONFIG_BACKUP_FILE);
             }
-
         } else {
-            System.err.println("Could not take backup of " + SFCBD_CONFIG_FILE + " file");
+            System.err
+                .println("Unable to update  " + SFCBD_CONFIG_FILE + " file with security protocol options");
         }
 
         return isUpdateSuccess;
     }
 
     /**
-     * Update SFCBD Configuration file
+     * Add steps to update SFCBD Configuration file with SSLv3 option and to verify the update
      */
-    private boolean
-    updateSFCBDConfigFile(String configFilePath, List<String> user_secProtosToEnable) throws Exception
+    private void
+    addSFCBDConfigFileUpdateSteps(Map<String, String> steps, String configFilePath)
     {
-        boolean isConfigUpdateSuccess = false;
-
-        // String to hold full command for security protocol updation
-        String fullCmd = "";
-
-        try {
-            // Check for SSL Option
-            String sslSearchString = "cat " + configFilePath + " | grep " + SFCBD_SSLV3;
-            Map<String, String> sslCmdOutputMap = SSHUtil.getRemoteSSHCmdOutput(sshConnObjCurrentHost, sslSearchString);
-
-            String err = sslCmdOutputMap.get(SSHUtil.SSH_ERROR_STREAM);
-            if (((!err.equals("")) || err != null) && err.length() > 0) {
-                System.err.println("Shell command returned error :" + err);
-            } else {
-                String tempsslStrings = sslCmdOutputMap.get(SSHUtil.SSH_OUTPUT_STREAM).trim();
-                if (!tempsslStrings.equals("")) {
-                    String[] tempSslkeyValArr = tempsslStrings.split(":");
-                    // SSL Option is already present in config file
-                    if (enableSsl) {
-                        fullCmd += "sed -i -e 's/" + tempSslkeyValArr[0] + ":" + tempSslkeyValArr[1] + "/" + SFCBD_SSLV3
-                            + ":true/g' " + SFCBD_CONFIG_FILE;
-                    } else {
-                        fullCmd += "sed -i -e 's/" + tempSslkeyValArr[0] + ":" + tempSslkeyValArr[1] + "/" + SFCBD_SSLV3
-                            + ":false/g' " + SFCBD_CONFIG_FILE;
-                    }
-
-                } else {
-                    // SSL Option is not present, ADD new entry
-                    String appendEntry = "";
-                    if (enableSsl) {
-                        appendEntry += "echo " + SFCBD_SSLV3 + ":true";
-                    } else {
-                        appendEntry += "echo " + SFCBD_SSLV3 + ":false";
-                    }
-                    fullCmd = appendEntry + " >> " + SFCBD_CONFIG_FILE;
-                }
-            }
-
-        } catch (Exception e) {
-            System.err.println("Caught exception while constructing command for SFCBD configuration file updation");
-        }
-
-        if (!fullCmd.equals("")) {
-            if (SSHUtil.executeRemoteSSHCommand(sshConnObjCurrentHost, fullCmd)) {
-                isConfigUpdateSuccess = true;
-            }
-        } else {
-            System.err.println("Could not construct command for updating SFCBD Configuration file");
-        }
+        String sslOptionEntry = SFCBD_SSLV3 + ":" + (enableSsl ? "true" : "false");
 
-        return isConfigUpdateSuccess;
+        /*
+         * SSL Option already present in config file - update its value,
+         * otherwise ADD new entry
+         */
+        steps.put("update-config", "if grep -q " + SFCBD_SSLV3 + " " + configFilePath + "; then sed -i -e 's/"
+            + SFCBD_SSLV3 + ":[[:space:]]*[a-zA-Z]*/" + sslOptionEntry + "/g' " + configFilePath + "; else echo "
+            + sslOptionEntry + " >> " + configFilePath + "; fi");
+        steps.put("verify-config", "grep -q '" + sslOptionEntry + "' " + configFilePath);
     }
 
     /**
      * Restore SFCBD security protocols to default, as it was before
      */
     private boolean
-    restoreSFCBDSecProto(Integer restoreServicePort, List<String> tempRestoreSecProtos)
+    restoreSFCBDSecProto(HostConfigContext hostCtx, Integer restoreServicePort, List<String> tempRestoreSecProtos)
     {
         boolean restoreDone = false;
         try {
             List<String> currSecProtos = null;
             try {
-                currSecProtos = securityProtocolScanner(currentHostName, restoreServicePort);
+                currSecProtos = securityProtocolScanner(hostCtx.hostName, restoreServicePort);
             } catch (Exception e) {
                 System.out
                     .println("Caught exception while running security tool scanner, May be service itself is down");
@@ -1774,11 +2466,11 @@ public class ESXi5xSSLConfigUpdater
             // Required protocols needs to be enabled
             System.out.println("Reverting the security protocol configuration changes ...");
 
-            if (SSHUtil.fileExistsOnHost(sshConnObjCurrentHost, SFCBD_CONFIG_BACKUP_FILE)) {
-                if (SSHUtil.copyFileOnHost(sshConnObjCurrentHost, SFCBD_CONFIG_BACKUP_FILE, SFCBD_CONFIG_FILE)) {
+            if (SSHUtil.fileExistsOnHost(hostCtx.sshConn, SFCBD_CONFIG_BACKUP_FILE)) {
+                if (SSHUtil.copyFileOnHost(hostCtx.sshConn, SFCBD_CONFIG_BACKUP_FILE, SFCBD_CONFIG_FILE)) {
                     // restart the services
                     System.out.println("Trying to restart service: " + SERVICE_SFCBD + ", for changes to take effect");
-                    if (SSHUtil.restartService(sshConnObjCurrentHost, SERVICE_SFCBD)) {
+                    if (SSHUtil.restartService(hostCtx.sshConn, SERVICE_SFCBD)) {
 
                         /*
                          * Scan and Check if user requested protocols are indeed
@@ -1787,7 +2479,8 @@ public class ESXi5xSSLConfigUpdater
                         System.out.println(
                             "Perform Post config file updation validation to check if"
                                 + " user expected protocols show up with security scanner ...");
-                        List<String> secProtosAfterChange = securityProtocolScanner(currentHostName, SFCBD_PORT);
+                        waitForServicePort(hostCtx.hostName, SFCBD_PORT);
+                        List<String> secProtosAfterChange = securityProtocolVerifier(hostCtx.hostName, SFCBD_PORT, tempRestoreSecProtos);
 
                         if (secProtoListPostValidater(tempRestoreSecProtos, secProtosAfterChange)) {
                             System.out.println("Successfully restored : \"" + tempRestoreSecProtos.toString() + "\" "
@@ -1825,13 +2518,13 @@ public class ESXi5xSSLConfigUpdater
      * Restore rhttpproxy/hostd security protocols to default, as it was before
      */
     private boolean
-    restoreESXiServiceSecProto(Integer restoreServicePort, List<String> tempRestoreSecProtos)
+    restoreESXiServiceSecProto(HostConfigContext hostCtx, Integer restoreServicePort, List<String> tempRestoreSecProtos)
     {
         boolean restoreDone = false;
         try {
             List<String> currSecProtos = null;
             try {
-                currSecProtos = securityProtocolScanner(currentHostName, restoreServicePort);
+                currSecProtos = securityProtocolScanner(hostCtx.hostName, restoreServicePort);
             } catch (Exception e) {
                 System.out
                     .println("Caught exception while running security tool scanner, May be service itself is down");
@@ -1855,10 +2548,10 @@ public class ESXi5xSSLConfigUpdater
                 String restoreFullCmd = "\"" + disabledProtos + "\"";
                 String restoreServiceName = null;
                 if (restoreServicePort == RHTTP_PROXY_PORT) {
-                    if (is50Host) {
+                    if (hostCtx.is50Host) {
                         restoreFullCmd = CMD_HOSTD + restoreFullCmd;
                         restoreServiceName = SERVICE_HOSTD;
-                    } else if(is51Host){
+                    } else if(hostCtx.is51Host){
                         restoreFullCmd = CMD_RHTTP_PROXY_51 + restoreFullCmd;
                         restoreServiceName = SERVICE_RHTTPPROXY;
                     } else {
@@ -1870,7 +2563,7 @@ public class ESXi5xSSLConfigUpdater
                     restoreServiceName = SERVICE_VSAN_VP;
                 }
 
-                if (SSHUtil.executeRemoteSSHCommand(sshConnObjCurrentHost, restoreFullCmd)) {
+                if (SSHUtil.executeRemoteSSHCommand(hostCtx.sshConn, restoreFullCmd)) {
                     System.out.println("Successfully executed the command for restoring security protocol list");
 
                     // Restart services and check if we were indeed
@@ -1878,14 +2571,14 @@ public class ESXi5xSSLConfigUpdater
                     System.out
                         .println("Trying to restart service: " + restoreServiceName + ", for changes to take effect");
                     boolean restartedService = false;
-                    if (is50Host && (restoreServicePort == RHTTP_PROXY_PORT)) {
-                        SSHUtil.executeAsyncRemoteSSHCommand(sshConnObjCurrentHost, SERVICE_HOSTD + " stop");
-                        if (SSHUtil.waitTillServiceisStopped(sshConnObjCurrentHost, SERVICE_HOSTD)) {
-                            SSHUtil.executeAsyncRemoteSSHCommand(sshConnObjCurrentHost, SERVICE_HOSTD + " start");
-                            restartedService  = SSHUtil.waitTillServiceisStarted(sshConnObjCurrentHost, SERVICE_HOSTD);
+                    if (hostCtx.is50Host && (restoreServicePort == RHTTP_PROXY_PORT)) {
+                        SSHUtil.executeAsyncRemoteSSHCommand(hostCtx.sshConn, SERVICE_HOSTD + " stop");
+                        if (SSHUtil.waitTillServiceisStopped(hostCtx.sshConn, SERVICE_HOSTD)) {
+                            SSHUtil.executeAsyncRemoteSSHCommand(hostCtx.sshConn, SERVICE_HOSTD + " start");
+                            restartedService  = SSHUtil.waitTillServiceisStarted(hostCtx.sshConn, SERVICE_HOSTD);
                         }
                     } else {
-                        restartedService = SSHUtil.restartService(sshConnObjCurrentHost, restoreServiceName);
+                        restartedService = SSHUtil.restartService(hostCtx.sshConn, restoreServiceName);
                     }
 
                     if (restartedService) {
@@ -1896,9 +2589,11 @@ public class ESXi5xSSLConfigUpdater
                         System.out.println(
                             "Perform Post validation to check if"
                                 + " user expected protocols show up with security scanner ...");
-                        List<String> secProtosAfterRestore = securityProtocolScanner(
-                            currentHostName,
-                            restoreServicePort);
+                        waitForServicePort(hostCtx.hostName, restoreServicePort);
+                        List<String> secProtosAfterRestore = securityProtocolVerifier(
+                            hostCtx.hostName,
+                            restoreServicePort,
+                            tempRestoreSecProtos);
 
                         if (secProtoListPostValidater(secProtosAfterRestore, tempRestoreSecProtos)) {
                             System.out.println("Successfully restored security protocols : \""
@@ -1933,20 +2628,20 @@ public class ESXi5xSSLConfigUpdater
      * TLS Security protocol configuration for... Authd service
      */
     private boolean
-    updateAuthdServiceSecProto(Integer portNum, List<String> user_secProtosToEnable, List<String> secProtosBeforeChange) throws Exception
+    updateAuthdServiceSecProto(HostConfigContext hostCtx, Integer portNum, List<String> user_secProtosToEnable, List<String> secProtosBeforeChange) throws Exception
     {
         boolean isUpdateSuccess = false;
 
         if (secProtosBeforeChange != null) {
             // Check if its valid security protocols combination - to enable
             if (enableSsl) {
-                if (!secProtosBeforeChange.containsAll(defaultSecProtoList)) {
+                if (!secProtosBeforeChange.containsAll(hostCtx.defaultSecProtoList)) {
                     System.err.println(PROTO_SSLV3 + " protocol can not be enabled. Combination of SSL and TLS protocols"
                         + " to enable is NOT supported");
                     secProtosBeforeChange.add(PROTO_SSLV3);
                     System.err.println("Requested : " + secProtosBeforeChange);
                     List<String> supportedList = new ArrayList<>();
-                    supportedList.addAll(defaultSecProtoList);
+                    supportedList.addAll(hostCtx.defaultSecProtoList);
                     supportedList.add(PROTO_SSLV3);
                     System.err.println("Supported : " + supportedList.toString());
                     return false;
@@ -1958,7 +2653,7 @@ public class ESXi5xSSLConfigUpdater
              * enabled - for restoring purpose, if something goes wrong
              * with updation later.
              */
-            enabledInpSecProtoMap.put(portNum, secProtosBeforeChange);
+            hostCtx.enabledInpSecProtoMap.put(portNum, secProtosBeforeChange);
 
             if (secProtoChecker(secProtosBeforeChange, user_secProtosToEnable)) {
                 // Required protocols are ALREADY enabled on port, No
@@ -1990,14 +2685,14 @@ public class ESXi5xSSLConfigUpdater
 
                 if (disabledProtos != null) {
                     String authCmdToSetProtos = CMD_AUTHD;
-                    if (is50Host) {
+                    if (hostCtx.is50Host) {
                         authCmdToSetProtos = CMD_AUTHD_50;
-                    } else if (is51Host) {
+                    } else if (hostCtx.is51Host) {
                         authCmdToSetProtos = CMD_AUTHD_51;
                     }
                     String fullCmd = authCmdToSetProtos + "\"" + disabledProtos + "\"";
 
-                    if (SSHUtil.executeRemoteSSHCommand(sshConnObjCurrentHost, fullCmd)) {
+                    if (SSHUtil.executeRemoteSSHCommand(hostCtx.sshConn, fullCmd)) {
                         System.out.println("Successfully executed the command for updating security protocol list");
                         /*
                          * Scan and Check if user requested protocols are indeed
@@ -2006,7 +2701,7 @@ public class ESXi5xSSLConfigUpdater
                         System.out.println(
                             "Perform Post validation to check if"
                                 + " user expected protocols are indeed persisted ...");
-                        List<String> secProtosAfterChange = authdProtocolFetcher(currentHostName, portNum);
+                        List<String> secProtosAfterChange = authdProtocolFetcher(hostCtx, portNum);
 
                         if (secProtoListPostValidater(user_secProtosToEnable, secProtosAfterChange)) {
                             System.out.println("Successfully enabled : \"" + user_secProtosToEnable.toString() + "\" "
@@ -2042,26 +2737,26 @@ public class ESXi5xSSLConfigUpdater
      * Read configuration file and determine the current enabled protocols
      */
     private List<String>
-    authdProtocolFetcher(String hostName, Integer portNum) throws Exception
+    authdProtocolFetcher(HostConfigContext hostCtx, Integer portNum) throws Exception
     {
         List<String> allDefaultProtos = new ArrayList<String>();
         String listAuthdProtosCmd = CMD_AUTHD_LIST_PROTOS;
 
-        if (is50Host) {
+        if (hostCtx.is50Host) {
             listAuthdProtosCmd = CMD_AUTHD_LIST_PROTOS_50;
-        } else if (is51Host) {
+        } else if (hostCtx.is51Host) {
             listAuthdProtosCmd = CMD_AUTHD_LIST_PROTOS_51;
         }
 
-        String cmdOutput = SSHUtil.getSSHOutputStream(sshConnObjCurrentHost, listAuthdProtosCmd);
+        String cmdOutput = SSHUtil.getSSHOutputStream(hostCtx.sshConn, listAuthdProtosCmd);
         cmdOutput = cmdOutput.substring(cmdOutput.indexOf("String Value:"), cmdOutput.indexOf("Default String Value:"))
             .replace("String Value:", "").trim();
 
         if (cmdOutput.equals("")) {
             allDefaultProtos.add(PROTO_SSLV3);
-            allDefaultProtos.addAll(defaultSecProtoList);
+            allDefaultProtos.addAll(hostCtx.defaultSecProtoList);
         } else if (cmdOutput.equals("sslv3")) {
-            allDefaultProtos.addAll(defaultSecProtoList);
+            allDefaultProtos.addAll(hostCtx.defaultSecProtoList);
         }
 
         return allDefaultProtos;
@@ -2149,36 +2844,36 @@ public class ESXi5xSSLConfigUpdater
      * Start SSH Services
      */
     private boolean
-    startSSHService(HostSystem hostSys) throws Exception
+    startSSHService(HostConfigContext hostCtx, HostSystem hostSys) throws Exception
     {
         boolean startedService = false;
 
         try {
-            HostServiceSystem hss = hostSys.getHostServiceSystem();
-            for (HostService tempHs : hss.getServiceInfo().getService()) {
-                String id = tempHs.getKey();
-                if (SSH_SERVICE.equalsIgnoreCase(id)) {
-                    if (!(getServiceState(hostSys, id).equalsIgnoreCase(SERVICE_RUNNING))) {
-                        hss.startService(id);
-
-                        // Check if we indeed were successful in starting services
-                        if (getServiceState(hostSys, id).equalsIgnoreCase(SERVICE_RUNNING)) {
-                            System.out.println(SSH_SERVICE + " service is in running state now");
-                            startedService = true;
-
-                            // below flag is for cleanup purpose - restoring
-                            // previous state
-                            cleanupStopSSHService = true;
-                            break;
-                        } else {
-                            System.err.println(SSH_SERVICE + " service could not be started");
-                            break;
-                        }
-                    } else {
-                        System.out.println(SSH_SERVICE + " service is already in running state");
+            HostServiceSystem hss = getHostServiceSystem(hostSys);
+            HostService sshService = serviceStateCache.getService(hss, SSH_SERVICE);
+            if (sshService != null) {
+                if (!sshService.isRunning()) {
+                    hss.startService(sshService.getKey());
+
+                    // Check if we indeed were successful in starting services
+                    sshService = serviceStateCache.awaitServiceState(
+                        hss,
+                        sshService.getKey(),
+                        true,
+                        SERVICE_STATE_WAIT_MS);
+                    if (sshService != null && sshService.isRunning()) {
+                        System.out.println(SSH_SERVICE + " service is in running state now");
                         startedService = true;
-                        break;
+
+                        // below flag is for cleanup purpose - restoring
+                        // previous state
+                        hostCtx.cleanupStopSSHService = true;
+                    } else {
+                        System.err.println(SSH_SERVICE + " service could not be started");
                     }
+                } else {
+                    System.out.println(SSH_SERVICE + " service is already in running state");
+                    startedService = true;
                 }
             }
         } catch (Exception e) {
@@ -2189,70 +2884,71 @@ public class ESXi5xSSLConfigUpdater
     }
 
     /**
-     * Stop SSH Services
+     * Stop SSH service, which was started by us on the host
      */
-    private boolean
-    stopSSHService(HostSystem hostSys) throws Exception
+    private void
+    restoreSSHServiceState(String hostName, HostSystem hostSys)
     {
-        boolean stoppedService = false;
-
+        System.out.println("Reverting the SSH Service state on host: " + hostName + ", as it was before");
         try {
-            HostServiceSystem hss = hostSys.getHostServiceSystem();
-            for (HostService tempHs : hss.getServiceInfo().getService()) {
-                String id = tempHs.getKey();
-                if (SSH_SERVICE.equalsIgnoreCase(id)) {
-                    if (!(getServiceState(hostSys, id).equalsIgnoreCase(SERVICE_STOPPED))) {
-                        hss.stopService(id);
-
-                        // Check if we indeed were successful in stopping services
-                        if (getServiceState(hostSys, id).equalsIgnoreCase(SERVICE_STOPPED)) {
-                            System.out.println(SSH_SERVICE + " service is stopped now");
-                            stoppedService = true;
-                            break;
-                        } else {
-                            System.err.println(SSH_SERVICE + " service could not be stopped");
-                            break;
-                        }
-                    } else {
-                        System.out.println(SSH_SERVICE + " service is already stopped");
-                        stoppedService = true;
-                        break;
-                    }
+            if (hostSys.getName() == null) {
+                if (isStandAloneHost) {
+                    si = getLiveServiceInstance();
+                }
+                HostInventoryIndex.HostEntry tempHost = retrieveSingleHost(hostName);
+                if (tempHost != null) {
+                    hostSys = tempHost.hostSys;
                 }
             }
+            stopSSHService(hostSys);
         } catch (Exception e) {
-            System.err.println("Caught exception while turning off SSH service");
+            System.err.println("Caught exception while reverting SSH Service state on host: " + hostName);
         }
-
-        return stoppedService;
     }
 
     /**
-     * Get ServiceState
+     * Stop SSH Services
      */
-    private String
-    getServiceState(HostSystem hs, String id) throws Exception
+    private boolean
+    stopSSHService(HostSystem hostSys) throws Exception
     {
-        String serviceState = null;
+        boolean stoppedService = false;
 
-        HostServiceSystem hss = hs.getHostServiceSystem();
-        for (HostService tempHsService : hss.getServiceInfo().getService()) {
-            if (id.equalsIgnoreCase(tempHsService.getKey())) {
-                if (tempHsService.isRunning()) {
-                    serviceState = SERVICE_RUNNING;
+        try {
+            HostServiceSystem hss = getHostServiceSystem(hostSys);
+            HostService sshService = serviceStateCache.getService(hss, SSH_SERVICE);
+            if (sshService != null) {
+                if (sshService.isRunning()) {
+                    hss.stopService(sshService.getKey());
+
+                    // Check if we indeed were successful in stopping services
+                    sshService = serviceStateCache.awaitServiceState(
+                        hss,
+                        sshService.getKey(),
+                        false,
+                        SERVICE_STATE_WAIT_MS);
+                    if (sshService != null && !sshService.isRunning()) {
+                        System.out.println(SSH_SERVICE + " service is stopped now");
+                        stoppedService = true;
+                    } else {
+                        System.err.println(SSH_SERVICE + " service could not be stopped");
+                    }
                 } else {
-                    serviceState = SERVICE_STOPPED;
+                    System.out.println(SSH_SERVICE + " service is already stopped");
+                    stoppedService = true;
                 }
             }
+        } catch (Exception e) {
+            System.err.println("Caught exception while turning off SSH service");
         }
 
-        return serviceState;
+        return stoppedService;
     }
 
     /**
      * Login method to VC
      */
-    private ServiceInstance
+    private synchronized ServiceInstance
     loginTovSphere(String url)
     {
         try {
@@ -2265,56 +2961,141 @@ public class ESXi5xSSLConfigUpdater
     }
 
     /**
-     * All connected hosts
+     * Return the logged in ServiceInstance. Login again, only if current session is no longer alive
+     * (e.g. hostd restart on standalone host ends the session)
      */
-    private List<HostSystem>
-    retrieveHosts()
+    private synchronized ServiceInstance
+    getLiveServiceInstance()
     {
-        // get first datacenters in the environment.
-        InventoryNavigator navigator = new InventoryNavigator(si.getRootFolder());
-
-        List<HostSystem> activeHosts = null;
         try {
-            ManagedEntity[] allTempHosts = navigator.searchManagedEntities(HOST_MOR_TYPE);
-
-            if (allTempHosts != null) {
-                activeHosts = new ArrayList<HostSystem>();
-                for (ManagedEntity host : allTempHosts) {
-                    HostSystem tempHostSys = (HostSystem) host;
-                    HostRuntimeInfo hostruntimeInfo = tempHostSys.getRuntime();
-                    if ((hostruntimeInfo.getConnectionState().equals(HostSystemConnectionState.connected))) {
-                        activeHosts.add(tempHostSys);
-                    }
-                }
+            if (si != null && si.currentTime() != null) {
+                return si;
             }
-
         } catch (Exception e) {
-            System.err.println("[Error] Unable to retrieve Hosts from inventory");
-            e.printStackTrace();
+            System.out.println("vSphere session is no longer alive, logging in again");
+        }
+        return loginTovSphere(url);
+    }
+
+    /**
+     * Index of inventory hosts, (re)built when it has not been built yet for the current vSphere session.
+     * Null when hosts could not be retrieved
+     */
+    private synchronized HostInventoryIndex
+    getHostInventory()
+    {
+        if (hostInventory == null || hostInventory.getServiceInstance() != si) {
+            try {
+                hostInventory = HostInventoryIndex.build(si);
+            } catch (Exception e) {
+                System.err.println("[Error] Unable to retrieve Hosts from inventory");
+                e.printStackTrace();
+                return null;
+            }
         }
-        return activeHosts;
+        return hostInventory;
     }
 
     /**
-     * Return hosts reference
+     * All connected hosts
      */
-    private HostSystem retrieveSingleHostSys(String hostName) {
-        HostSystem hostSys = null;
+    private List<HostInventoryIndex.HostEntry>
+    retrieveHosts()
+    {
+        HostInventoryIndex inventory = getHostInventory();
+        return (inventory != null) ? inventory.getConnectedHosts() : null;
+    }
 
-        // get first datacenters in the environment.
-        InventoryNavigator navigator = new InventoryNavigator(si.getRootFolder());
+    /**
+     * Return connected host by its name, null if there is no such host or it is not connected
+     */
+    private HostInventoryIndex.HostEntry
+    retrieveSingleHost(String hostName)
+    {
+        HostInventoryIndex.HostEntry host = null;
 
-        try {
+        HostInventoryIndex inventory = getHostInventory();
+        if (inventory != null) {
             if (isStandAloneHost) {
-                hostSys = (HostSystem) navigator.searchManagedEntities(HOST_MOR_TYPE)[0];
+                if (inventory.getAllHosts().size() > 0) {
+                    host = inventory.getAllHosts().get(0);
+                }
             } else {
-                hostSys = (HostSystem) navigator.searchManagedEntity(HOST_MOR_TYPE, hostName);
+                host = inventory.getHost(hostName);
             }
+        }
 
-        } catch (Exception e) {
-            System.err.println("Unable to retrieve provided Host's HostSystem object from inventory");
+        return (host != null && host.isConnected()) ? host : null;
+    }
+
+    /**
+     * Host's HostServiceSystem - reference from the inventory index is used when available, to save a
+     * round trip to vCenter Server
+     */
+    private HostServiceSystem
+    getHostServiceSystem(HostSystem hostSys) throws Exception
+    {
+        HostInventoryIndex inventory = getHostInventory();
+        if (inventory != null) {
+            HostInventoryIndex.HostEntry host = inventory.getHost(hostSys);
+            if (host != null && host.serviceSystem != null
+                && host.hostSys.getServerConnection() == hostSys.getServerConnection()) {
+                return host.serviceSystem;
+            }
+        }
+        return hostSys.getHostServiceSystem();
+    }
+
+    /*
+     * Class to hold the state of a host, while its configuration is in progress.
+     * Each host being configured gets its own instance, so that hosts can be
+     * configured from multiple threads at the same time.
+     */
+    static class HostConfigContext
+    {
+        HostInfoHelper.HostsInfoHolderClass hostInfo;
+        String hostName;
+        HostSystem hostSys;
+
+        // Host as retrieved with the inventory, null if it was not found there
+        HostInventoryIndex.HostEntry hostEntry;
+
+        // Cluster the host belongs to, for scheduling, and whether the scheduler has let the host in
+        String clusterKey;
+        boolean waveDispatched;
+        Connection sshConn;
+        boolean is50Host;
+        boolean is51Host;
+
+        // SSH service was started by us, hence needs to be stopped at the end
+        boolean cleanupStopSSHService;
+
+        /*
+         * Map of Port & Protocols 'about to be' enabled. This would be used for
+         * cleanup process
+         */
+        Map<Integer, List<String>> enabledInpSecProtoMap;
+
+        // Protocols to enable and default list of supported protocols - as applicable to this host
+        List<String> secProtosToEnable;
+        List<String> defaultSecProtoList;
+
+        /**
+         * Constructor - takes its own copy of protocol lists, as 5.0/5.1 hosts trim them
+         * down to what they support
+         */
+        HostConfigContext(List<String> secProtosToEnable, List<String> defaultSecProtoList)
+        {
+            this.secProtosToEnable = new ArrayList<String>(secProtosToEnable);
+            this.defaultSecProtoList = new ArrayList<String>(defaultSecProtoList);
+        }
+
+        @Override
+        public String
+        toString()
+        {
+            return (hostInfo != null) ? hostInfo.hostName : hostName;
         }
-        return hostSys;
     }
 
     /*
@@ -33,6 +33,7 @@ package com.vmware.secprotomgmt;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -41,11 +42,14 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import com.vmware.secprotomgmt.ESXi5xSSLConfigUpdater.HostSSLResultHolderClass;
 import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.mo.ServiceInstance;
 
 public class HostInfoHelper
 {
@@ -56,7 +60,7 @@ public class HostInfoHelper
      * username, password
      */
     public static boolean
-    createHostsInformationFile(List<HostSystem> allHostSys) throws IOException
+    createHostsInformationFile(ServiceInstance si) throws IOException
     {
         boolean hostsInfoFileCreated = false;
         FileWriter fw = null;
@@ -74,15 +78,41 @@ public class HostInfoHelper
                 bw = new BufferedWriter(fw);
                 bw.write("HOSTNAME," + "VERSION," + "USERNAME," + "PASSWORD," + "PASSWORD_ENCRYPTED\n");
 
-                // Write Host contents into the file
-                for (HostSystem tempHostSys : allHostSys) {
-                    bw.write(
-                        tempHostSys.getName() + "," + tempHostSys.getConfig().getProduct().getFullName() + "," + " "
-                            + "," + " " + "," + "no\n");
+                /*
+                 * Write connected Hosts into the file, page by page as they are retrieved from VC.
+                 * Only the properties needed for the file are retrieved
+                 */
+                final BufferedWriter hostsWriter = bw;
+                final int[] connectedHostCount = { 0 };
+                HostInventoryIndex.retrieveHosts(
+                    si,
+                    HostInventoryIndex.HOST_LISTING_PROPERTIES,
+                    HostInventoryIndex.DEFAULT_PAGE_SIZE,
+                    new HostInventoryIndex.HostsPageListener() {
+                        @Override
+                        public void
+                        hostsRetrieved(List<HostInventoryIndex.HostEntry> hostsPage) throws IOException
+                        {
+                            for (HostInventoryIndex.HostEntry tempHost : hostsPage) {
+                                if (tempHost.isConnected()) {
+                                    hostsWriter.write(
+                                        tempHost.name + "," + tempHost.productFullName + "," + " "
+                                            + "," + " " + "," + "no\n");
+                                    ++connectedHostCount[0];
+                                }
+                            }
+                            hostsWriter.flush();
+                        }
+                    });
+
+                if (connectedHostCount[0] > 0) {
+                    System.out.println(
+                        "ESXi Hosts information (" + connectedHostCount[0]
+                            + " hosts) has been successfully populated into file: " + dir + "/" + fileName);
+                    hostsInfoFileCreated = true;
+                } else {
+                    System.err.println("Either all hosts are NOT in connected state, or we failed retrieving hosts");
                 }
-                System.out.println(
-                    "ESXi Hosts information has been successfully populated into file: " + dir + "/" + fileName);
-                hostsInfoFileCreated = true;
             } else {
                 System.err.println(
                     "Could not create ESXi hosts information file. Check if the file that we want to create already exists");
@@ -113,136 +143,280 @@ public class HostInfoHelper
     }
 
     /**
-     * Method to read the hosts information file and push them into array of
-     * HostsInfoHolderClass objects
+     * Streaming reader of the hosts information file. Rows are read and parsed one at a time,
+     * as and when they are asked for, hence memory does not grow with the size of file.
+     * Reading stops at the first read error, see getReadError
      */
-    public static
-    List<HostsInfoHolderClass> readHostsInfoFile(File fileHandle)
+    public static class HostsInfoFileReader implements Iterator<HostsInfoHolderClass>, Closeable
     {
-        List<HostsInfoHolderClass> hostsListFromFile = null;
-        try {
-            FileReader existingFileRdr = new FileReader(fileHandle);
-            BufferedReader br = new BufferedReader(existingFileRdr);
-            int lineNum = 0;
-            String line;
-            String key = null;
-            hostsListFromFile = new ArrayList<HostsInfoHolderClass>();
-            while ((line = br.readLine()) != null) {
+        private BufferedReader br;
+        private int lineNum;
+        private String key;
+        private HostsInfoHolderClass nextHostInfo;
+        private IOException readError;
+
+        public HostsInfoFileReader(File fileHandle) throws IOException
+        {
+            br = new BufferedReader(new FileReader(fileHandle));
+        }
+
+        @Override
+        public boolean
+        hasNext()
+        {
+            while (nextHostInfo == null && br != null) {
+                String line = null;
+                try {
+                    line = br.readLine();
+                } catch (IOException e) {
+                    System.err.println("Caught exception while retrieving hosts information from file");
+                    readError = new IOException(
+                        "Could not read hosts information file beyond line " + lineNum + ": " + e.getMessage(), e);
+                }
+                if (line == null) {
+                    close();
+                    break;
+                }
                 if (lineNum > 0) { // Ignore the header of file
-                    String[] hostFields = line.split(",");
-                    HostsInfoHolderClass obj = new HostsInfoHolderClass();
-                    obj.hostName = hostFields[0].trim();
-                    obj.hostVer = hostFields[1].trim();
-                    obj.username = hostFields[2].trim();
-
-                    String isPwdEncrypted = hostFields[4].trim();
-                    if (isPwdEncrypted.equalsIgnoreCase("yes")) {
-                        System.out.println(
-                            "ESXi host- " + obj.hostName + " password has been encrypted. Trying to decrypt ...");
-                        String encryptedStr = hostFields[3].trim();
-
-                        if (lineNum == 1 || key == null) {
-                            /*
-                             * Only for the first time request user to provide information to decrypt the password
-                             * for rest of the iterations, same key can be used for decryption
-                             */
-                            List<String> decryptedData = PasswdEncrypter.decryptValueWithUserEnteredKey(encryptedStr);
-                            if (decryptedData != null && decryptedData.size() == 2) {
-                                key = decryptedData.get(0);
-                                obj.password = decryptedData.get(1);
-                            } else {
-                                System.err.println(
-                                    "Skipping ESXi host: " + obj.hostName + ", as we failed to decrypt password");
-                                ++lineNum;
-                                continue;
-                            }
+                    nextHostInfo = parseHostInfo(line);
+                }
+                ++lineNum;
+            }
+            return nextHostInfo != null;
+        }
+
+        @Override
+        public HostsInfoHolderClass
+        next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HostsInfoHolderClass hostInfo = nextHostInfo;
+            nextHostInfo = null;
+            return hostInfo;
+        }
+
+        /**
+         * Error which stopped reading the file before its end, null if none
+         */
+        public IOException
+        getReadError()
+        {
+            return readError;
+        }
+
+        @Override
+        public void
+        close()
+        {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+                br = null;
+            }
+        }
+
+        /*
+         * Parse a row of the file into HostsInfoHolderClass object, null if the row has to be skipped
+         */
+        private HostsInfoHolderClass
+        parseHostInfo(String line)
+        {
+            try {
+                String[] hostFields = line.split(",");
+                HostsInfoHolderClass obj = new HostsInfoHolderClass();
+                obj.hostName = hostFields[0].trim();
+                obj.hostVer = hostFields[1].trim();
+                obj.username = hostFields[2].trim();
+
+                String isPwdEncrypted = hostFields[4].trim();
+                if (isPwdEncrypted.equalsIgnoreCase("yes")) {
+                    System.out.println(
+                        "ESXi host- " + obj.hostName + " password has been encrypted. Trying to decrypt ...");
+                    String encryptedStr = hostFields[3].trim();
+
+                    if (lineNum == 1 || key == null) {
+                        /*
+                         * Only for the first time request user to provide information to decrypt the password
+                         * for rest of the iterations, same key can be used for decryption
+                         */
+                        List<String> decryptedData = PasswdEncrypter.decryptValueWithUserEnteredKey(encryptedStr);
+                        if (decryptedData != null && decryptedData.size() == 2) {
+                            key = decryptedData.get(0);
+                            obj.password = decryptedData.get(1);
                         } else {
-                            key = key.trim(); // Removing leading or trailing spaces
-                            String tempDecryptedPwd = PasswdEncrypter.decrypt(key, encryptedStr);
-                            if (tempDecryptedPwd != null) {
-                                System.out.println("Successfully decrypted ESXi password for host: " + obj.hostName);
-                                //System.out.println("[TESTED] Password is:" + tempDecryptedPwd);
-                                obj.password = tempDecryptedPwd;
-                            } else {
-                                System.err.println(
-                                    "Skipping ESXi host: " + obj.hostName + ", as we failed to decrypt password");
-                                ++lineNum;
-                                continue;
-                            }
+                            System.err.println(
+                                "Skipping ESXi host: " + obj.hostName + ", as we failed to decrypt password");
+                            return null;
                         }
-
                     } else {
-                        obj.password = hostFields[3].trim();
+                        key = key.trim(); // Removing leading or trailing spaces
+                        String tempDecryptedPwd = PasswdEncrypter.decrypt(key, encryptedStr);
+                        if (tempDecryptedPwd != null) {
+                            System.out.println("Successfully decrypted ESXi password for host: " + obj.hostName);
+                            //System.out.println("[TESTED] Password is:" + tempDecryptedPwd);
+                            obj.password = tempDecryptedPwd;
+                        } else {
+                            System.err.println(
+                                "Skipping ESXi host: " + obj.hostName + ", as we failed to decrypt password");
+                            return null;
+                        }
                     }
 
-                    hostsListFromFile.add(obj);
+                } else {
+                    obj.password = hostFields[3].trim();
                 }
-                ++lineNum;
+
+                return obj;
+            } catch (Exception e) {
+                System.err.println(
+                    "Skipping line " + (lineNum + 1) + " of hosts information file, as we failed to parse it");
+                return null;
             }
-            br.close();
-        } catch (Exception e) {
-            System.err.println("Caught exception while retrieving hosts information from file");
-            hostsListFromFile = null;
+        }
+    }
+
+    /**
+     * Writer to stream the SSL configuration result of hosts into a CSV file, one block per host,
+     * appended and flushed as soon as the host is done with. Hosts are numbered in the order they
+     * complete. File is created only when the first host result is written
+     */
+    public static class HostsSSLConfigResultWriter
+    {
+        private final String reqToenableProtos;
+        private final Map<Integer, String> portToServiceNameMap;
+        private final File file;
+        private BufferedWriter bw;
+        private int hostCount;
+
+        public HostsSSLConfigResultWriter(String reqToenableProtos, Map<Integer, String> portToServiceNameMap)
+        {
+            this.reqToenableProtos = reqToenableProtos;
+            this.portToServiceNameMap = portToServiceNameMap;
+            String dir = Paths.get(".").toAbsolutePath().normalize().toString();
+            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(Calendar.getInstance().getTime());
+            this.file = new File(dir, "HostsSSLConfigResult-" + timeStamp + ".csv");
+        }
+
+        /**
+         * Append the SSL configuration result of a single host
+         */
+        public synchronized void
+        writeHost(String hostName, List<HostSSLResultHolderClass> hostResult) throws IOException
+        {
+            if (bw == null) {
+                System.out.println("Trying to create  ESXi hosts result file: " + file.getAbsolutePath());
+                if (!file.createNewFile()) {
+                    throw new IOException(
+                        "Could not create ESXi result information file. Check if the file that we want to create already exists");
+                }
+                bw = new BufferedWriter(new FileWriter(file.getAbsoluteFile()));
+                bw.write("@@@@@@@@@@@@@@@@@ ALL HOSTS SSL CONFIGURATION RESULT @@@@@@@@@@@@@@@@@,\n");
+            }
+
+            ++hostCount;
+            String completedAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(Calendar.getInstance().getTime());
+            bw.write("HOST: " + hostName + ",\n");
+            bw.write("Completed (#" + hostCount + ") at : " + completedAt + ",\n");
+            bw.write("Protocols to ENABLE (as requested by user) : " + reqToenableProtos.replaceAll(",", " ") + ",\n");
+            bw.write("SERVICE NAME," + "PORT," + "Before SSL Protocols," + "After SSL Protocols\n");
+
+            for (HostSSLResultHolderClass tempSSLResultObj : hostResult) {
+                String serviceName = portToServiceNameMap.get(tempSSLResultObj.port);
+                String port = tempSSLResultObj.port.toString();
+                String beforeProtoList = tempSSLResultObj.beforeProtoList.replaceAll(",", " ");
+                String afterProtoList = tempSSLResultObj.afterProtoList.replaceAll(",", " ");
+                bw.write(serviceName + "," + port + "," + beforeProtoList + "," + afterProtoList + "\n");
+            }
+            bw.write(",\n");
+            bw.flush();
         }
 
-        return hostsListFromFile;
+        /**
+         * Close the result file, if it was created
+         */
+        public synchronized void
+        close() throws IOException
+        {
+            if (bw != null) {
+                bw.close();
+                bw = null;
+                System.out.println(
+                    "ESXi Hosts SSL Configuration result (" + hostCount + " hosts) has been successfully populated into file: "
+                        + file.getAbsolutePath());
+            }
+        }
     }
 
     /**
-     * Write the SSL configuration result of all hosts into a CSV file
+     * Writer to stream the SSL/TLS protocol scan result of hosts into a CSV or JSON file,
+     * one row per host/port, as soon as the port is scanned
      */
-    public static boolean
-    createHostsSSLConfigResultFile(HashMap<String, List<HostSSLResultHolderClass>> resultHoldingObj,
-        String reqToenableProtos) throws IOException
+    public static class HostsScanReportWriter
     {
-        boolean hostsResultFileCreated = false;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        try {
+        private BufferedWriter bw;
+        private boolean jsonFormat;
+        private int rowCount;
+
+        /**
+         * Create the report file in current directory
+         */
+        public HostsScanReportWriter(boolean jsonFormat) throws IOException
+        {
+            this.jsonFormat = jsonFormat;
             String dir = Paths.get(".").toAbsolutePath().normalize().toString();
             String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(Calendar.getInstance().getTime());
-            String fileName = "HostsSSLConfigResult-" + timeStamp + ".csv";
+            String fileName = "HostsSSLScanReport-" + timeStamp + (jsonFormat ? ".json" : ".csv");
             File file = new File(dir, fileName);
 
-            System.out.println("Trying to create  ESXi hosts result file: " + dir + "/" + fileName);
-            if (file.createNewFile()) {
-                System.out.println("Successfully created file");
-                System.out.println("Start writing ESXi hosts SSL Configuration result into file");
-                fw = new FileWriter(file.getAbsoluteFile());
-                bw = new BufferedWriter(fw);
-                bw.write("@@@@@@@@@@@@@@@@@ ALL HOSTS SSL CONFIGURATION RESULT @@@@@@@@@@@@@@@@@,\n");
-                ESXi5xSSLConfigUpdater tempParentClassObj = new ESXi5xSSLConfigUpdater();
-                for (String tempHostName : resultHoldingObj.keySet()) {
-                    bw.write("HOST: " + tempHostName + ",\n");
-                    bw.write("Protocols to ENABLE (as requested by user) : " + reqToenableProtos.replaceAll(",", " ") + ",\n");
-                    bw.write("SERVICE NAME," + "PORT," + "Before SSL Protocols," + "After SSL Protocols\n");
-
-                    for (HostSSLResultHolderClass tempSSLResultObj : resultHoldingObj.get(tempHostName)) {
-                        String serviceName = tempParentClassObj.portToServiceNameMap.get(tempSSLResultObj.port);
-                        String port = tempSSLResultObj.port.toString();
-                        String beforeProtoList = tempSSLResultObj.beforeProtoList.replaceAll(",", " ");
-                        String afterProtoList = tempSSLResultObj.afterProtoList.replaceAll(",", " ");
-                        bw.write(serviceName + "," + port + "," + beforeProtoList + "," + afterProtoList + "\n");
-                    }
-                    bw.write(",\n");
+            System.out.println("Trying to create ESXi hosts scan report file: " + dir + "/" + fileName);
+            bw = new BufferedWriter(new FileWriter(file.getAbsoluteFile()));
+            if (jsonFormat) {
+                bw.write("[\n");
+            } else {
+                bw.write("HOSTNAME," + "SERVICE NAME," + "PORT," + "SSL Protocols," + "SSLv3 ENABLED\n");
+            }
+            bw.flush();
+        }
+
+        /**
+         * Append the scan result of a single host/port
+         */
+        public synchronized void
+        writeRow(String hostName, String serviceName, Integer port, List<String> protocols) throws IOException
+        {
+            boolean sslv3Enabled = protocols.contains("SSLv3");
+            if (jsonFormat) {
+                StringBuilder protoArray = new StringBuilder();
+                for (String proto : protocols) {
+                    protoArray.append(protoArray.length() > 0 ? ", " : "").append("\"").append(proto).append("\"");
                 }
-                   System.out.println(
-                    "ESXi Hosts information has been successfully populated into file: " + dir + "/" + fileName);
-                hostsResultFileCreated = true;
+                bw.write((rowCount > 0 ? ",\n" : "") + "  {\"host\": \"" + hostName + "\", \"service\": \"" + serviceName
+                    + "\", \"port\": " + port + ", \"protocols\": [" + protoArray + "], \"sslv3Enabled\": "
+                    + sslv3Enabled + "}");
             } else {
-                System.err.println(
-                    "Could not create ESXi result information file. Check if the file that we want to create already exists");
+                bw.write(hostName + "," + serviceName + "," + port + "," + protocols.toString().replaceAll(",", " ")
+                    + "," + (sslv3Enabled ? "yes" : "no") + "\n");
             }
-        } catch (Exception e) {
-            System.err.println("Could not create/populate ESXi hosts data into hosts information file");
-        } finally {
-            // cleanup the writer handles
-            if (bw != null)
-                bw.close();
-            if (fw != null)
-                fw.close();
+            bw.flush();
+            ++rowCount;
         }
 
-        return hostsResultFileCreated;
+        /**
+         * Complete and close the report file
+         */
+        public synchronized void
+        close() throws IOException
+        {
+            if (jsonFormat) {
+                bw.write((rowCount > 0 ? "\n" : "") + "]\n");
+            }
+            bw.close();
+            System.out.println("ESXi Hosts scan result has been successfully populated into file");
+        }
     }
 }
\ No newline at end of file
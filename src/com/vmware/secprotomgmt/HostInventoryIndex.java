@@ -0,0 +1,372 @@
+/**
+ * Index of all HostSystems in the inventory, keyed by host name. Built from
+ * paged PropertyCollector retrievals, instead of searching the inventory once
+ * per host.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.HostSystemConnectionState;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.mo.ClusterComputeResource;
+import com.vmware.vim25.mo.HostServiceSystem;
+import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+
+public class HostInventoryIndex
+{
+    // Maximum number of hosts asked for in one page of property retrieval
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    // Host properties retrieved for all the hosts, in one go
+    public static final String PROP_NAME = "name";
+    public static final String PROP_CONNECTION_STATE = "runtime.connectionState";
+    public static final String PROP_PRODUCT_FULLNAME = "config.product.fullName";
+    public static final String PROP_PRODUCT_VERSION = "config.product.version";
+    public static final String PROP_PRODUCT_BUILD = "config.product.build";
+    public static final String PROP_HOST_UUID = "hardware.systemInfo.uuid";
+    public static final String PROP_SERVICE_SYSTEM = "configManager.serviceSystem";
+    public static final String PROP_PARENT = "parent";
+
+    private static final String[] HOST_PROPERTIES = {
+        PROP_NAME,
+        PROP_CONNECTION_STATE,
+        PROP_PRODUCT_FULLNAME,
+        PROP_PRODUCT_VERSION,
+        PROP_PRODUCT_BUILD,
+        PROP_HOST_UUID,
+        PROP_SERVICE_SYSTEM,
+        PROP_PARENT };
+
+    // Host properties needed just for listing the hosts
+    public static final String[] HOST_LISTING_PROPERTIES = {
+        PROP_NAME,
+        PROP_CONNECTION_STATE,
+        PROP_PRODUCT_FULLNAME };
+
+    private final ServiceInstance si;
+
+    // All hosts, in the order returned by vCenter Server
+    private final List<HostEntry> allHosts = new ArrayList<HostEntry>();
+
+    // Hosts by (lower cased) name
+    private final Map<String, HostEntry> hostsByName = new HashMap<String, HostEntry>();
+
+    // Hosts by HostSystem managed object id
+    private final Map<String, HostEntry> hostsByMorId = new HashMap<String, HostEntry>();
+
+    // Cluster names by ClusterComputeResource managed object id
+    private final Map<String, String> clusterNames = new HashMap<String, String>();
+
+    private HostInventoryIndex(ServiceInstance si)
+    {
+        this.si = si;
+    }
+
+    /**
+     * Retrieve all HostSystems of the inventory along with their name, connection state,
+     * product version & build, UUID, service system reference and cluster, and index them by host name
+     */
+    public static HostInventoryIndex
+    build(ServiceInstance si) throws Exception
+    {
+        final HostInventoryIndex index = new HostInventoryIndex(si);
+        final Map<String, ClusterComputeResource> clusters = new LinkedHashMap<String, ClusterComputeResource>();
+        retrieveHosts(si, HOST_PROPERTIES, DEFAULT_PAGE_SIZE, new HostsPageListener() {
+            @Override
+            public void
+            hostsRetrieved(List<HostEntry> hostsPage)
+            {
+                for (HostEntry hostEntry : hostsPage) {
+                    index.addHost(hostEntry);
+                    if (hostEntry.cluster != null) {
+                        clusters.put(hostEntry.clusterId, hostEntry.cluster);
+                    }
+                }
+            }
+        });
+
+        // Names of all the clusters, in one go
+        if (clusters.size() > 0) {
+            List<ClusterComputeResource> clusterList = new ArrayList<ClusterComputeResource>(clusters.values());
+            Hashtable<?, ?>[] clusterProps = PropertyCollectorUtil.retrieveProperties(
+                clusterList.toArray(new ClusterComputeResource[clusterList.size()]),
+                ESXi5xSSLConfigUpdater.CLUSTER_COMPRES_MOR_TYPE,
+                new String[] { PROP_NAME });
+            for (int i = 0; i < clusterList.size(); i++) {
+                Object clusterName = clusterProps[i].get(PROP_NAME);
+                if (clusterName != null) {
+                    index.clusterNames.put(clusterList.get(i).getMOR().getVal(), clusterName.toString());
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Retrieve the given properties of all HostSystems of the inventory, in pages of up to 'pageSize'
+     * hosts. Each page is handed over to the listener as soon as it arrives, so that the caller need not
+     * hold all the hosts at once
+     */
+    public static void
+    retrieveHosts(ServiceInstance si, String[] properties, int pageSize, HostsPageListener listener)
+        throws Exception
+    {
+        ServerConnection serverConn = si.getServerConnection();
+        PropertyCollector pc = si.getPropertyCollector();
+
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult result = pc.retrievePropertiesEx(
+            new PropertyFilterSpec[] { createHostsFilterSpec(si, properties) },
+            retrieveOptions);
+        while (result != null) {
+            List<HostEntry> hostsPage = new ArrayList<HostEntry>();
+            if (result.getObjects() != null) {
+                for (ObjectContent oc : result.getObjects()) {
+                    hostsPage.add(new HostEntry(serverConn, oc));
+                }
+            }
+
+            try {
+                listener.hostsRetrieved(hostsPage);
+            } catch (Exception e) {
+                // Release the rest of the result held by vCenter Server
+                if (result.getToken() != null) {
+                    pc.cancelRetrievePropertiesEx(result.getToken());
+                }
+                throw e;
+            }
+
+            // Next page, if any
+            if (result.getToken() != null) {
+                result = pc.continueRetrievePropertiesEx(result.getToken());
+            } else {
+                result = null;
+            }
+        }
+    }
+
+    /*
+     * Filter spec to reach all HostSystems starting from root folder
+     */
+    private static PropertyFilterSpec
+    createHostsFilterSpec(ServiceInstance si, String[] properties)
+    {
+        ObjectSpec objSpec = PropertyCollectorUtil.creatObjectSpec(
+            si.getRootFolder().getMOR(),
+            true,
+            PropertyCollectorUtil.buildFullTraversalV4());
+        PropertySpec propSpec = PropertyCollectorUtil.createPropertySpec(
+            ESXi5xSSLConfigUpdater.HOST_MOR_TYPE,
+            false, properties);
+
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.setObjectSet(new ObjectSpec[] { objSpec });
+        filterSpec.setPropSet(new PropertySpec[] { propSpec });
+        return filterSpec;
+    }
+
+    private void
+    addHost(HostEntry hostEntry)
+    {
+        allHosts.add(hostEntry);
+        if (hostEntry.name != null) {
+            hostsByName.put(hostEntry.name.toLowerCase(Locale.ENGLISH), hostEntry);
+        }
+        hostsByMorId.put(hostEntry.hostSys.getMOR().getVal(), hostEntry);
+    }
+
+    /**
+     * ServiceInstance, the index was built with
+     */
+    public ServiceInstance
+    getServiceInstance()
+    {
+        return si;
+    }
+
+    /**
+     * Host by its name, null if there is no such host in the inventory
+     */
+    public HostEntry
+    getHost(String hostName)
+    {
+        if (hostName == null) {
+            return null;
+        }
+        return hostsByName.get(hostName.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Host by its HostSystem, null if the host was not part of the inventory when index was built
+     */
+    public HostEntry
+    getHost(HostSystem hostSys)
+    {
+        return hostsByMorId.get(hostSys.getMOR().getVal());
+    }
+
+    /**
+     * All hosts of the inventory
+     */
+    public List<HostEntry>
+    getAllHosts()
+    {
+        return Collections.unmodifiableList(allHosts);
+    }
+
+    /**
+     * Name of the cluster, its managed object id if the name is not known
+     */
+    public String
+    getClusterName(String clusterId)
+    {
+        String clusterName = clusterNames.get(clusterId);
+        return (clusterName != null) ? clusterName : clusterId;
+    }
+
+    /**
+     * Hosts in connected state
+     */
+    public List<HostEntry>
+    getConnectedHosts()
+    {
+        List<HostEntry> connectedHosts = new ArrayList<HostEntry>();
+        for (HostEntry hostEntry : allHosts) {
+            if (hostEntry.isConnected()) {
+                connectedHosts.add(hostEntry);
+            }
+        }
+        return connectedHosts;
+    }
+
+    /**
+     * Listener of the pages of hosts, as they are retrieved
+     */
+    public interface HostsPageListener
+    {
+        void
+        hostsRetrieved(List<HostEntry> hostsPage) throws Exception;
+    }
+
+    /**
+     * Host and its properties, as retrieved. Properties which were not asked for are null
+     */
+    public static class HostEntry
+    {
+        public final HostSystem hostSys;
+        public final String name;
+        public final HostSystemConnectionState connectionState;
+        public final String productFullName;
+        public final String productVersion;
+        public final String productBuild;
+        public final String hostUuid;
+
+        // Null when the host is not connected
+        public final HostServiceSystem serviceSystem;
+
+        // Cluster the host belongs to, null for a host which is not part of any cluster
+        public final ClusterComputeResource cluster;
+        public final String clusterId;
+
+        HostEntry(ServerConnection serverConn, ObjectContent oc)
+        {
+            String tempName = null;
+            HostSystemConnectionState tempConnectionState = null;
+            String tempProductFullName = null;
+            String tempProductVersion = null;
+            String tempProductBuild = null;
+            String tempHostUuid = null;
+            HostServiceSystem tempServiceSystem = null;
+            ClusterComputeResource tempCluster = null;
+
+            if (oc.getPropSet() != null) {
+                for (DynamicProperty prop : oc.getPropSet()) {
+                    if (PROP_NAME.equals(prop.getName())) {
+                        tempName = (String) prop.getVal();
+                    } else if (PROP_CONNECTION_STATE.equals(prop.getName())) {
+                        tempConnectionState = (HostSystemConnectionState) prop.getVal();
+                    } else if (PROP_PRODUCT_FULLNAME.equals(prop.getName())) {
+                        tempProductFullName = (String) prop.getVal();
+                    } else if (PROP_PRODUCT_VERSION.equals(prop.getName())) {
+                        tempProductVersion = (String) prop.getVal();
+                    } else if (PROP_PRODUCT_BUILD.equals(prop.getName())) {
+                        tempProductBuild = (String) prop.getVal();
+                    } else if (PROP_HOST_UUID.equals(prop.getName())) {
+                        tempHostUuid = (String) prop.getVal();
+                    } else if (PROP_SERVICE_SYSTEM.equals(prop.getName())) {
+                        tempServiceSystem = new HostServiceSystem(serverConn, (ManagedObjectReference) prop.getVal());
+                    } else if (PROP_PARENT.equals(prop.getName())) {
+                        ManagedObjectReference parentMor = (ManagedObjectReference) prop.getVal();
+                        if (ESXi5xSSLConfigUpdater.CLUSTER_COMPRES_MOR_TYPE.equals(parentMor.getType())) {
+                            tempCluster = new ClusterComputeResource(serverConn, parentMor);
+                        }
+                    }
+                }
+            }
+
+            this.hostSys = new HostSystem(serverConn, oc.getObj());
+            this.name = tempName;
+            this.connectionState = tempConnectionState;
+            this.productFullName = tempProductFullName;
+            this.productVersion = tempProductVersion;
+            this.productBuild = tempProductBuild;
+            this.hostUuid = tempHostUuid;
+            this.serviceSystem = tempServiceSystem;
+            this.cluster = tempCluster;
+            this.clusterId = (tempCluster != null) ? tempCluster.getMOR().getVal() : null;
+        }
+
+        public boolean
+        isConnected()
+        {
+            return HostSystemConnectionState.connected.equals(connectionState);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Cache of the services information of ESXi hosts. Each host's services
+ * information is watched through a PropertyCollector filter, created once
+ * per host: its first update fills the cache, later updates refresh it after
+ * a service has been started or stopped.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.vim25.HostService;
+import com.vmware.vim25.HostServiceInfo;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.HostServiceSystem;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+
+public class HostServiceStateCache
+{
+    public static final String SERVICE_SYSTEM_MOR_TYPE = "HostServiceSystem";
+    public static final String PROP_SERVICE_INFO = "serviceInfo";
+
+    // Services information, by HostServiceSystem managed object id
+    private final Map<String, HostServiceInfo> serviceInfoCache = new ConcurrentHashMap<String, HostServiceInfo>();
+
+    // Watch of services information updates, by HostServiceSystem managed object id
+    private final Map<String, ServiceInfoWatch> serviceInfoWatches = new ConcurrentHashMap<String, ServiceInfoWatch>();
+
+    /**
+     * Service of the host, from cache. When not cached yet, services information is taken from the first
+     * update of host's watch, which is then kept for later waits. Null if there is no such service on the host
+     */
+    public HostService
+    getService(HostServiceSystem hss, String serviceKey) throws Exception
+    {
+        HostServiceInfo serviceInfo = serviceInfoCache.get(makeKey(hss));
+        if (serviceInfo == null) {
+            try {
+                openWatch(hss);
+                serviceInfo = serviceInfoCache.get(makeKey(hss));
+            } catch (Exception e) {
+                // Updates could not be listened to, retrieve services information instead
+                release(hss);
+            }
+            if (serviceInfo == null) {
+                serviceInfo = hss.getServiceInfo();
+                if (serviceInfo != null) {
+                    serviceInfoCache.put(makeKey(hss), serviceInfo);
+                }
+            }
+        }
+        return findService(serviceInfo, serviceKey);
+    }
+
+    /**
+     * To be called after the service has been started or stopped. Waits up to 'timeoutMs' for the
+     * service to reach the expected state, by listening to the updates of host's services information,
+     * and refreshes the cache. Returns the service as last seen
+     */
+    public HostService
+    awaitServiceState(HostServiceSystem hss, String serviceKey, boolean running, long timeoutMs) throws Exception
+    {
+        try {
+            return watchServiceState(hss, serviceKey, running, timeoutMs);
+        } catch (Exception e) {
+            // Updates could not be listened to, fall back to retrieving services information again
+            System.out.println("Could not listen to service state updates, retrieving the state again");
+            invalidate(hss);
+            return getService(hss, serviceKey);
+        }
+    }
+
+    /**
+     * Drop the cached services information of the host, along with its watch
+     */
+    public void
+    invalidate(HostServiceSystem hss)
+    {
+        release(hss);
+        serviceInfoCache.remove(makeKey(hss));
+    }
+
+    /**
+     * Host is done with - stop watching its services information
+     */
+    public void
+    release(HostServiceSystem hss)
+    {
+        ServiceInfoWatch watch = serviceInfoWatches.remove(makeKey(hss));
+        if (watch != null) {
+            try {
+                // Filter goes away along with the collector
+                watch.pc.destroyPropertyCollector();
+            } catch (Exception e) {
+                // ignored, collector goes away along with the session anyway
+            }
+        }
+    }
+
+    /*
+     * Start watching host's services information on a PropertyCollector of its own, and cache the
+     * services information carried by its first update
+     */
+    private ServiceInfoWatch
+    openWatch(HostServiceSystem hss) throws Exception
+    {
+        /*
+         * Filters and update versions are per PropertyCollector, hence a private collector is used,
+         * so that hosts can be waited upon from multiple threads at the same time
+         */
+        ServiceInfoWatch watch = new ServiceInfoWatch(
+            hss.getServerConnection().getServiceInstance().getPropertyCollector().createPropertyCollector());
+        serviceInfoWatches.put(makeKey(hss), watch);
+
+        ObjectSpec objSpec = PropertyCollectorUtil.creatObjectSpec(hss.getMOR(), false, null);
+        PropertySpec propSpec = PropertyCollectorUtil.createPropertySpec(
+            SERVICE_SYSTEM_MOR_TYPE,
+            false,
+            new String[] { PROP_SERVICE_INFO });
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.setObjectSet(new ObjectSpec[] { objSpec });
+        filterSpec.setPropSet(new PropertySpec[] { propSpec });
+        watch.pc.createFilter(filterSpec, false);
+
+        // First update carries the current value
+        UpdateSet updates = watch.pc.waitForUpdatesEx(watch.version, new WaitOptions());
+        if (updates != null) {
+            watch.version = updates.getVersion();
+            HostServiceInfo serviceInfo = getServiceInfo(updates);
+            if (serviceInfo != null) {
+                serviceInfoCache.put(makeKey(hss), serviceInfo);
+            }
+        }
+        return watch;
+    }
+
+    /*
+     * Listen to the updates of host's services information, till the service reaches the expected
+     * state or the wait times out
+     */
+    private HostService
+    watchServiceState(HostServiceSystem hss, String serviceKey, boolean running, long timeoutMs) throws Exception
+    {
+        ServiceInfoWatch watch = serviceInfoWatches.get(makeKey(hss));
+        if (watch == null) {
+            watch = openWatch(hss);
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        HostService service = findService(serviceInfoCache.get(makeKey(hss)), serviceKey);
+        while (service != null && service.isRunning() != running && System.currentTimeMillis() < deadline) {
+            WaitOptions waitOptions = new WaitOptions();
+            waitOptions.setMaxWaitSeconds(
+                (int) Math.max(1, (deadline - System.currentTimeMillis() + 999) / 1000));
+            UpdateSet updates = watch.pc.waitForUpdatesEx(watch.version, waitOptions);
+            if (updates == null) {
+                // No change within the wait time
+                continue;
+            }
+            watch.version = updates.getVersion();
+
+            HostServiceInfo serviceInfo = getServiceInfo(updates);
+            if (serviceInfo != null) {
+                serviceInfoCache.put(makeKey(hss), serviceInfo);
+                service = findService(serviceInfo, serviceKey);
+            }
+        }
+
+        return service;
+    }
+
+    /*
+     * Latest services information carried by the updates, if any
+     */
+    private static HostServiceInfo
+    getServiceInfo(UpdateSet updates)
+    {
+        HostServiceInfo serviceInfo = null;
+        if (updates.getFilterSet() != null) {
+            for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+                if (filterUpdate.getObjectSet() == null) {
+                    continue;
+                }
+                for (ObjectUpdate objUpdate : filterUpdate.getObjectSet()) {
+                    if (objUpdate.getChangeSet() == null) {
+                        continue;
+                    }
+                    for (PropertyChange change : objUpdate.getChangeSet()) {
+                        if (PROP_SERVICE_INFO.equals(change.getName()) && change.getVal() instanceof HostServiceInfo) {
+                            serviceInfo = (HostServiceInfo) change.getVal();
+                        }
+                    }
+                }
+            }
+        }
+        return serviceInfo;
+    }
+
+    private static HostService
+    findService(HostServiceInfo serviceInfo, String serviceKey)
+    {
+        if (serviceInfo != null && serviceInfo.getService() != null) {
+            for (HostService tempHs : serviceInfo.getService()) {
+                if (serviceKey.equalsIgnoreCase(tempHs.getKey())) {
+                    return tempHs;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String
+    makeKey(HostServiceSystem hss)
+    {
+        return hss.getMOR().getVal();
+    }
+
+    /*
+     * PropertyCollector watching services information of a host, and version of the last update seen.
+     * Used by one thread at a time, as a host is handed over from stage to stage
+     */
+    private static class ServiceInfoWatch
+    {
+        final PropertyCollector pc;
+        String version = "";
+
+        ServiceInfoWatch(PropertyCollector pc)
+        {
+            this.pc = pc;
+        }
+    }
+}
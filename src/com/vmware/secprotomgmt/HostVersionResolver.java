@@ -0,0 +1,262 @@
+/**
+ * Resolves version, update level and build of ESXi hosts. Version and build
+ * are taken from host's product info (config.product), retrieved along with
+ * the inventory for all hosts at once. Update level is not part of it, hence
+ * it is remembered in an on-disk cache keyed by host UUID and build - running
+ * "esxcli system version get" over SSH only for a host/build not seen before.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.ethz.ssh2.Connection;
+
+public class HostVersionResolver implements Closeable
+{
+    public static final String DEFAULT_CACHE_FILE = "HostsVersionCache.txt";
+
+    private static final String CMD_VERSION_CHECK = "esxcli system version get";
+    private static final String FIELD_SEPARATOR = "\t";
+
+    // Null when the cache file could not be opened, versions are then remembered for this run only
+    private FileOutputStream out;
+
+    // Resolved versions by host UUID and build
+    private final Map<String, HostVersion> cache = new HashMap<String, HostVersion>();
+
+    private HostVersionResolver(File cacheFile)
+    {
+        try {
+            if (cacheFile.exists()) {
+                load(cacheFile);
+            }
+            this.out = new FileOutputStream(cacheFile, true);
+        } catch (IOException e) {
+            System.err.println("Could not open ESXi version cache file: " + cacheFile.getAbsolutePath() + " : " + e);
+        }
+    }
+
+    /**
+     * Open the cache file, entries found in it are loaded and new ones are appended to it
+     */
+    public static HostVersionResolver
+    open(File cacheFile)
+    {
+        return new HostVersionResolver(cacheFile);
+    }
+
+    /**
+     * Version of the host. Version and build are taken from host's product info, update level from
+     * the cache. SSH connection (may be null) is used only when the product info is not available,
+     * or update level is needed and not yet cached for this host and build.
+     * Returns null if the version could not be determined
+     */
+    public HostVersion
+    resolve(HostInventoryIndex.HostEntry hostEntry, Connection sshConn, boolean needUpdateLevel) throws Exception
+    {
+        String hostUuid = (hostEntry != null) ? hostEntry.hostUuid : null;
+        String version = (hostEntry != null) ? hostEntry.productVersion : null;
+        Integer build = (hostEntry != null) ? parseBuild(hostEntry.productBuild) : null;
+
+        if (version != null && build != null) {
+            HostVersion cachedVersion = getCached(hostUuid, build);
+            if (cachedVersion != null) {
+                return cachedVersion;
+            }
+            if (!needUpdateLevel || sshConn == null) {
+                return new HostVersion(version, null, build);
+            }
+        }
+
+        // Fallback - ask the host itself
+        if (sshConn == null) {
+            return null;
+        }
+        HostVersion hostVersion = parseVersionOutput(SSHUtil.getSSHOutputStream(sshConn, CMD_VERSION_CHECK));
+        if (hostVersion != null && hostVersion.update != null) {
+            putCached(hostUuid, hostVersion);
+        }
+        return hostVersion;
+    }
+
+    @Override
+    public synchronized void
+    close()
+    {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    /*
+     * Output of "esxcli system version get":
+     *    Product: VMware ESXi
+     *    Version: 5.5.0
+     *    Build: Releasebuild-3248547
+     *    Update: 3
+     */
+    static HostVersion
+    parseVersionOutput(String verCmdoutput)
+    {
+        if (verCmdoutput == null) {
+            return null;
+        }
+
+        String version = null;
+        Integer build = null;
+        Integer update = null;
+        for (String line : verCmdoutput.split("\n")) {
+            int sepIndex = line.indexOf(':');
+            if (sepIndex < 0) {
+                continue;
+            }
+            String field = line.substring(0, sepIndex).trim().toLowerCase();
+            String value = line.substring(sepIndex + 1).trim();
+            if (field.equals("version")) {
+                version = value;
+            } else if (field.equals("build")) {
+                build = parseBuild(value);
+            } else if (field.equals("update")) {
+                update = parseBuild(value);
+            }
+        }
+
+        return (version != null) ? new HostVersion(version, update, build) : null;
+    }
+
+    /*
+     * Build number, with or without "Releasebuild-" prefix
+     */
+    private static Integer
+    parseBuild(String build)
+    {
+        if (build == null) {
+            return null;
+        }
+        int sepIndex = build.lastIndexOf('-');
+        try {
+            return Integer.valueOf(build.substring(sepIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    synchronized HostVersion
+    getCached(String hostUuid, Integer build)
+    {
+        if (hostUuid == null) {
+            return null;
+        }
+        return cache.get(makeKey(hostUuid, build));
+    }
+
+    /*
+     * Remember the version of host, and append it to the cache file
+     */
+    synchronized void
+    putCached(String hostUuid, HostVersion hostVersion)
+    {
+        if (hostUuid == null || hostVersion.build == null) {
+            return;
+        }
+        if (cache.put(makeKey(hostUuid, hostVersion.build), hostVersion) != null || out == null) {
+            return;
+        }
+
+        String line = hostUuid + FIELD_SEPARATOR + hostVersion.build + FIELD_SEPARATOR + hostVersion.version
+            + FIELD_SEPARATOR + hostVersion.update + "\n";
+        try {
+            out.write(line.getBytes("UTF-8"));
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write version of host: " + hostUuid + " into cache file: " + e);
+        }
+    }
+
+    private void
+    load(File cacheFile) throws IOException
+    {
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(cacheFile));
+            String line;
+            while ((line = br.readLine()) != null) {
+                // <host uuid> <build> <version> <update>
+                String[] fields = line.split(FIELD_SEPARATOR, -1);
+                if (fields.length < 4) {
+                    continue;
+                }
+                Integer build = parseBuild(fields[1]);
+                Integer update = parseBuild(fields[3]);
+                if (build != null && update != null) {
+                    cache.put(makeKey(fields[0], build), new HostVersion(fields[2], update, build));
+                }
+            }
+        } finally {
+            if (br != null) {
+                br.close();
+            }
+        }
+    }
+
+    private static String
+    makeKey(String hostUuid, Integer build)
+    {
+        return hostUuid + "|" + build;
+    }
+
+    /**
+     * Version, update level and build of the host. Update level is null when it was not needed
+     * and is not known
+     */
+    public static class HostVersion
+    {
+        public final String version;
+        public final Integer update;
+        public final Integer build;
+
+        HostVersion(String version, Integer update, Integer build)
+        {
+            this.version = version;
+            this.update = update;
+            this.build = build;
+        }
+    }
+}
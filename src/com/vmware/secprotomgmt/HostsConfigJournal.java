@@ -0,0 +1,251 @@
+/**
+ * Append-only journal of SSL/TLS configuration progress of hosts and their
+ * ports. Every step is synced to disk as soon as it is recorded, so that an
+ * interrupted run can be resumed without redoing the hosts already done.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HostsConfigJournal implements Closeable
+{
+    public static final String DEFAULT_JOURNAL_FILE = "HostsSSLConfigJournal.log";
+
+    // Steps recorded in the journal
+    public static final String HOST_STARTED = "HOST_STARTED";
+    public static final String PORT_SCANNED = "PORT_SCANNED";
+    public static final String PORT_UPDATED = "PORT_UPDATED";
+    public static final String PORT_VERIFIED = "PORT_VERIFIED";
+    public static final String PORT_RESTORED = "PORT_RESTORED";
+    public static final String HOST_DONE = "HOST_DONE";
+    public static final String HOST_FAILED = "HOST_FAILED";
+
+    private static final String FIELD_SEPARATOR = "\t";
+
+    // enablessl/disablessl - steps recorded for other operation are not considered on resume
+    private final String operation;
+    private final FileOutputStream out;
+
+    // State of hosts as per the journal, at the time it was opened
+    private final Map<String, HostState> hostStates = new HashMap<String, HostState>();
+
+    private HostsConfigJournal(File file, String operation, boolean resume) throws IOException
+    {
+        this.operation = operation;
+        if (resume && file.exists()) {
+            load(file);
+        } else if (!resume && file.length() > 0) {
+            keepJournal(file);
+        }
+        this.out = new FileOutputStream(file, resume);
+    }
+
+    /**
+     * Open the journal. If 'resume' is set, progress recorded in the existing journal is loaded
+     * and new steps are appended to it, otherwise a new journal is started - existing journal is
+     * then kept aside under a timestamped name, and not overwritten
+     */
+    public static HostsConfigJournal
+    open(File file, String operation, boolean resume) throws IOException
+    {
+        System.out.println(
+            (resume ? "Resuming from" : "Recording progress into") + " journal file: " + file.getAbsolutePath());
+        return new HostsConfigJournal(file, operation, resume);
+    }
+
+    /**
+     * Record a step of the host (port is null for host level steps), and sync it to disk
+     */
+    public synchronized void
+    record(String hostName, Integer port, String step, String detail)
+    {
+        String line = System.currentTimeMillis() + FIELD_SEPARATOR + operation + FIELD_SEPARATOR + hostName
+            + FIELD_SEPARATOR + (port != null ? port.toString() : "-") + FIELD_SEPARATOR + step
+            + FIELD_SEPARATOR + (detail != null ? detail.replaceAll("[\t\r\n]", " ") : "") + "\n";
+        try {
+            out.write(line.getBytes("UTF-8"));
+            out.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("Could not record progress of host: " + hostName + " into journal: " + e);
+        }
+    }
+
+    /**
+     * Host was completely configured, as per the journal
+     */
+    public boolean
+    isHostDone(String hostName)
+    {
+        HostState hostState = hostStates.get(hostName);
+        return hostState != null && hostState.done;
+    }
+
+    /**
+     * Ports of the host that were configured and verified, and not reverted since, as per the journal.
+     * Port -> {protocols before change, protocols after change}
+     */
+    public Map<Integer, String[]>
+    getVerifiedPorts(String hostName)
+    {
+        HostState hostState = hostStates.get(hostName);
+        if (hostState == null) {
+            return new LinkedHashMap<Integer, String[]>();
+        }
+        return new LinkedHashMap<Integer, String[]>(hostState.verifiedPorts);
+    }
+
+    /**
+     * Protocols list as recorded in journal ("[TLSv1.0, TLSv1.1]") back into a list
+     */
+    public static List<String>
+    parseProtoList(String protoList)
+    {
+        String trimmed = protoList.trim().replaceAll("^\\[|\\]$", "").trim();
+        if (trimmed.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(Arrays.asList(trimmed.split("\\s*,\\s*")));
+    }
+
+    @Override
+    public synchronized void
+    close()
+    {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    /*
+     * Rename the journal of an earlier run, so that it can still be resumed from (after renaming it back)
+     */
+    private static void
+    keepJournal(File file) throws IOException
+    {
+        String keptPath =
+            file.getPath() + "." + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(file.lastModified()));
+        File keptFile = new File(keptPath);
+        for (int i = 1; keptFile.exists(); i++) {
+            keptFile = new File(keptPath + "." + i);
+        }
+        if (!file.renameTo(keptFile)) {
+            throw new IOException("Could not keep aside existing journal file as: " + keptFile.getAbsolutePath()
+                + ", rerun with 'resume' option to resume from it, or remove it to start over");
+        }
+        System.out.println("Existing journal file kept as: " + keptFile.getAbsolutePath()
+            + " (rerun with 'resume' option to resume from the journal, instead of starting over)");
+    }
+
+    /*
+     * Replay the journal, to know where each host was left at
+     */
+    private void
+    load(File file) throws IOException
+    {
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(FIELD_SEPARATOR, -1);
+                if (fields.length < 6 || !operation.equals(fields[1])) {
+                    // Incomplete (last line of an interrupted run) or other operation's step
+                    continue;
+                }
+                String hostName = fields[2];
+                String step = fields[4];
+                HostState hostState = hostStates.get(hostName);
+                if (hostState == null) {
+                    hostState = new HostState();
+                    hostStates.put(hostName, hostState);
+                }
+
+                if (HOST_DONE.equals(step)) {
+                    hostState.done = true;
+                } else if (HOST_FAILED.equals(step)) {
+                    hostState.done = false;
+                } else if (PORT_VERIFIED.equals(step) || PORT_RESTORED.equals(step)) {
+                    Integer port;
+                    try {
+                        port = Integer.valueOf(fields[3]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (PORT_VERIFIED.equals(step)) {
+                        // Detail: <protocols before change>|<protocols after change>
+                        String[] protoLists = fields[5].split("\\|", -1);
+                        if (protoLists.length == 2) {
+                            hostState.verifiedPorts.put(port, protoLists);
+                        }
+                    } else {
+                        hostState.done = false;
+                        hostState.verifiedPorts.remove(port);
+                    }
+                }
+            }
+        } finally {
+            if (br != null) {
+                br.close();
+            }
+        }
+
+        int doneCount = 0;
+        for (HostState hostState : hostStates.values()) {
+            if (hostState.done) {
+                ++doneCount;
+            }
+        }
+        System.out.println("Hosts already configured as per journal: " + doneCount);
+    }
+
+    /*
+     * Where a host was left at, as per the journal
+     */
+    private static class HostState
+    {
+        boolean done;
+        Map<Integer, String[]> verifiedPorts = new LinkedHashMap<Integer, String[]>();
+    }
+}
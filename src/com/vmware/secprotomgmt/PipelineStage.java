@@ -0,0 +1,99 @@
+/**
+ * Stage of a pipeline. Runs its tasks on a bounded number of threads of its
+ * own, with a bounded number of tasks waiting, so that a fast stage upstream
+ * is held back by a slower stage downstream instead of flooding it.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class PipelineStage
+{
+    private final String name;
+    private final ExecutorService executor;
+
+    // Tasks running + waiting
+    private final Semaphore slots;
+
+    /**
+     * Constructor - up to 'concurrency' tasks run at the same time and up to 'queueCapacity'
+     * more wait for their turn
+     */
+    public PipelineStage(String name, int concurrency, int queueCapacity)
+    {
+        this.name = name;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        this.slots = new Semaphore(Math.max(1, concurrency) + Math.max(0, queueCapacity));
+    }
+
+    public String
+    getName()
+    {
+        return name;
+    }
+
+    /**
+     * Hand over the task to the stage. Blocks while the stage is full
+     */
+    public void
+    submit(final Runnable task) throws InterruptedException
+    {
+        slots.acquire();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        task.run();
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Accept no more tasks, and wait for the tasks already handed over to complete
+     */
+    public void
+    shutdownAndWait() throws InterruptedException
+    {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
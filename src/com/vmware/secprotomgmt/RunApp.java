@@ -45,16 +45,22 @@ public class RunApp
     {
         System.out.println("\n~~~~~~~~~~~~~~~~~~~~~~~~~~ SSLv3 CONFIGURATION (ENABLE/DISABLE) ~~~~~~~~~~~~~~~~~~~~~~~~~~");
         System.out.println(
-            "Usage: java -jar secprotomgmt.jar --vsphereip <vc/esxi server IP> --username <uname> --password <pwd> [gethosts] [--hostsinfofile <pathToHostsListfile>] [enablessl] [disablessl]");
+            "Usage: java -jar secprotomgmt.jar --vsphereip <vc/esxi server IP> --username <uname> --password <pwd> [gethosts] [--hostsinfofile <pathToHostsListfile>] [--parallelism <N>] [--clusterparallelism <N>] [--servicewaittimeout <secs>] [streamservicestate] [resume] [enablessl] [disablessl] [scan [--format <csv|json>]]");
         System.out.println("\nExample 1: To obtain hosts file information from vCenter Server");
         System.out.println(
             "\"java -jar secprotomgmt.jar --vsphereip 10.1.2.3 --username adminUser --password dummy gethosts\"");
         System.out.println("\nExample 2: To enable SSLv3 on multiple ESXi hosts");
         System.out.println(
             "\"java -jar secprotomgmt.jar --vsphereip 10.1.2.3 --username adminUser --password dummy --hostsinfofile c:\\SecurityProtoMgmt\\esxihosts.csv enablessl\"");
-        System.out.println("\nExample 3: To disable SSLv3 on a SINGLE ESXi host");
+        System.out.println("\nExample 3: To disable SSLv3 on multiple ESXi hosts, configuring 10 hosts at a time, 2 per cluster");
+        System.out.println(
+            "\"java -jar secprotomgmt.jar --vsphereip 10.1.2.3 --username adminUser --password dummy --hostsinfofile c:\\SecurityProtoMgmt\\esxihosts.csv --parallelism 10 --clusterparallelism 2 disablessl\"");
+        System.out.println("\nExample 4: To disable SSLv3 on a SINGLE ESXi host");
         System.out.println(
             "\"java -jar secprotomgmt.jar --vsphereip 10.4.5.6 --username rootUser --password dummyRoot disablessl\"");
+        System.out.println("\nExample 5: To scan (read-only) SSL/TLS protocols enabled on all ESXi hosts, without SSH");
+        System.out.println(
+            "\"java -jar secprotomgmt.jar --vsphereip 10.1.2.3 --username adminUser --password dummy scan --format json\"");
      }
 
     public static void usagePwdEncryptUtility()
@@ -81,12 +87,15 @@ public class RunApp
         if (args.length > 0 && args.length >= 7) {
             List<String> cmdLineArgs = Arrays.asList(args);
             if (cmdLineArgs.contains("enablessl") || cmdLineArgs.contains("disablessl") ||
-                cmdLineArgs.contains("gethosts")) {
+                cmdLineArgs.contains("gethosts") || cmdLineArgs.contains("scan")) {
                 // Request is for SSL configuration
                 ESXi5xSSLConfigUpdater sslScript = new ESXi5xSSLConfigUpdater(args);
                 if (sslScript.validateProperties()) {
                     sslScript.executeScriptFlow();
                 }
+
+                // Pooled SSH connections are no longer needed, as the process is about to exit
+                SSHConnectionPool.getSharedPool().closeIdleConnections();
             } else {
                 usageSSLScript();
                 usagePwdEncryptUtility();
@@ -0,0 +1,297 @@
+/**
+ * Pool of authenticated SSH connections to ESXi hosts, keyed by host and user.
+ * Avoids redoing TCP connect, key exchange and authentication for every use.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import ch.ethz.ssh2.Connection;
+import ch.ethz.ssh2.ConnectionMonitor;
+
+public class SSHConnectionPool
+{
+    // Default number of connections (in use + idle) allowed per host/user
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    // Default time (in milliseconds) after which an unused connection is closed
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    // Default time (in milliseconds) to wait for a connection, when max-per-host limit is reached
+    public static final long DEFAULT_BORROW_TIMEOUT_MS = 10 * 60 * 1000;
+
+    // Pool shared by the whole process, so that repeated runs reuse authenticated connections
+    private static final SSHConnectionPool sharedPool = new SSHConnectionPool(
+        DEFAULT_MAX_PER_HOST,
+        DEFAULT_IDLE_TIMEOUT_MS,
+        DEFAULT_BORROW_TIMEOUT_MS);
+
+    private final int maxPerHost;
+    private final long idleTimeoutMs;
+    private final long borrowTimeoutMs;
+
+    // Idle connections and count of all connections (in use + idle), per host/user key
+    private final Map<String, Deque<PooledConnection>> idleConnections = new HashMap<String, Deque<PooledConnection>>();
+    private final Map<String, Integer> openConnectionCount = new HashMap<String, Integer>();
+
+    // Connections handed out to the callers
+    private final Map<Connection, PooledConnection> borrowedConnections = new HashMap<Connection, PooledConnection>();
+
+    /**
+     * Constructor
+     */
+    public SSHConnectionPool(int maxPerHost, long idleTimeoutMs, long borrowTimeoutMs)
+    {
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+    }
+
+    /**
+     * Pool shared across the process
+     */
+    public static SSHConnectionPool
+    getSharedPool()
+    {
+        return sharedPool;
+    }
+
+    /**
+     * Get an authenticated SSH connection to the host. An idle pooled connection is
+     * reused when it is still healthy, otherwise a new one is established.
+     * Waits for a connection to be released, when max-per-host limit is reached
+     */
+    public Connection
+    borrowConnection(String hostName, String userName, String password) throws Exception
+    {
+        String key = makeKey(hostName, userName);
+        long waitDeadline = System.currentTimeMillis() + borrowTimeoutMs;
+
+        for (;;) {
+            PooledConnection idleConn = null;
+            synchronized (this) {
+                evictIdleConnections();
+
+                Deque<PooledConnection> idleQueue = idleConnections.get(key);
+                if (idleQueue != null && !idleQueue.isEmpty()) {
+                    idleConn = idleQueue.pollFirst();
+                    borrowedConnections.put(idleConn.conn, idleConn);
+                } else if (getOpenCount(key) < maxPerHost) {
+                    // Reserve the slot, connection is established outside of the lock
+                    openConnectionCount.put(key, getOpenCount(key) + 1);
+                    break;
+                } else {
+                    long waitTime = waitDeadline - System.currentTimeMillis();
+                    if (waitTime <= 0) {
+                        throw new Exception(
+                            "Timed out waiting for a free SSH connection to host: " + hostName + " (limit: "
+                                + maxPerHost + ")");
+                    }
+                    wait(waitTime);
+                    continue;
+                }
+            }
+
+            // Health check is a round trip to the host, hence done outside of the lock
+            if (idleConn.isHealthy()) {
+                System.out.println("Reusing SSH connection to host: " + hostName);
+                return idleConn.conn;
+            }
+            invalidateConnection(idleConn.conn);
+        }
+
+        PooledConnection pooledConn = null;
+        try {
+            pooledConn = new PooledConnection(key, SSHUtil.getSSHConnection(hostName, userName, password));
+        } finally {
+            synchronized (this) {
+                if (pooledConn != null) {
+                    borrowedConnections.put(pooledConn.conn, pooledConn);
+                } else {
+                    // Failed to connect, release the reserved slot
+                    openConnectionCount.put(key, getOpenCount(key) - 1);
+                    notifyAll();
+                }
+            }
+        }
+
+        return pooledConn.conn;
+    }
+
+    /**
+     * Hand back the connection to the pool, for later reuse
+     */
+    public synchronized void
+    releaseConnection(Connection conn)
+    {
+        PooledConnection pooledConn = borrowedConnections.remove(conn);
+        if (pooledConn == null) {
+            // Not from the pool
+            conn.close();
+            return;
+        }
+
+        if (pooledConn.lost) {
+            discard(pooledConn);
+        } else {
+            pooledConn.lastUsedTime = System.currentTimeMillis();
+            Deque<PooledConnection> idleQueue = idleConnections.get(pooledConn.key);
+            if (idleQueue == null) {
+                idleQueue = new ArrayDeque<PooledConnection>();
+                idleConnections.put(pooledConn.key, idleQueue);
+            }
+            // Most recently used first, so that older connections age out
+            idleQueue.addFirst(pooledConn);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Close the connection and remove it from the pool. To be used when the connection
+     * is known to be broken, e.g. SSH service has been stopped on the host
+     */
+    public synchronized void
+    invalidateConnection(Connection conn)
+    {
+        PooledConnection pooledConn = borrowedConnections.remove(conn);
+        if (pooledConn != null) {
+            discard(pooledConn);
+        } else {
+            conn.close();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Close all the idle connections of the pool
+     */
+    public synchronized void
+    closeIdleConnections()
+    {
+        for (Deque<PooledConnection> idleQueue : idleConnections.values()) {
+            while (!idleQueue.isEmpty()) {
+                discard(idleQueue.pollFirst());
+            }
+        }
+        idleConnections.clear();
+        notifyAll();
+    }
+
+    /*
+     * Close connections which have not been used for longer than idle timeout
+     */
+    private void
+    evictIdleConnections()
+    {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        for (Deque<PooledConnection> idleQueue : idleConnections.values()) {
+            Iterator<PooledConnection> itr = idleQueue.iterator();
+            while (itr.hasNext()) {
+                PooledConnection pooledConn = itr.next();
+                if (now - pooledConn.lastUsedTime > idleTimeoutMs) {
+                    itr.remove();
+                    expired.add(pooledConn);
+                }
+            }
+        }
+        for (PooledConnection pooledConn : expired) {
+            discard(pooledConn);
+        }
+    }
+
+    private void
+    discard(PooledConnection pooledConn)
+    {
+        pooledConn.conn.close();
+        openConnectionCount.put(pooledConn.key, getOpenCount(pooledConn.key) - 1);
+    }
+
+    private int
+    getOpenCount(String key)
+    {
+        Integer count = openConnectionCount.get(key);
+        return (count != null) ? count : 0;
+    }
+
+    private static String
+    makeKey(String hostName, String userName)
+    {
+        return hostName + "|" + userName;
+    }
+
+    /*
+     * Connection along with its pool bookkeeping
+     */
+    private static class PooledConnection implements ConnectionMonitor
+    {
+        final String key;
+        final Connection conn;
+        long lastUsedTime;
+        volatile boolean lost;
+
+        PooledConnection(String key, Connection conn)
+        {
+            this.key = key;
+            this.conn = conn;
+            this.lastUsedTime = System.currentTimeMillis();
+            conn.addConnectionMonitor(this);
+        }
+
+        @Override
+        public void
+        connectionLost(Throwable reason)
+        {
+            lost = true;
+        }
+
+        /*
+         * Health check - connection is not lost, and a session can still be opened on it
+         */
+        boolean
+        isHealthy()
+        {
+            if (lost) {
+                return false;
+            }
+            try {
+                conn.openSession().close();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+}
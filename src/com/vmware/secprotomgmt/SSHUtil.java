@@ -36,6 +36,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -57,6 +59,40 @@ public class SSHUtil
     public static final String SERVICE_STATE_NOT_RUNNING = "NOT RUNNING";
     public static final String SERVICE_STATE_STOPPED = "STOPPED";
 
+    // Service state waiting: overall deadline and poll intervals (exponential backoff) in milliseconds
+    public static final long DEFAULT_SERVICE_WAIT_DEADLINE = 240000;
+    private static final long SERVICE_POLL_INITIAL_INTERVAL = 200;
+    private static final long SERVICE_POLL_MAX_INTERVAL = 5000;
+
+    private static volatile long serviceWaitDeadline = DEFAULT_SERVICE_WAIT_DEADLINE;
+
+    /*
+     * Instead of polling with a command per query, keep a single remote loop running that
+     * streams the service state whenever it changes
+     */
+    private static volatile boolean streamServiceState;
+
+    // Marker lines printed by batched remote script, around output of each step
+    private static final String SCRIPT_STEP_BEGIN = "@@SECPROTOMGMT_STEP_BEGIN";
+    private static final String SCRIPT_STEP_END = "@@SECPROTOMGMT_STEP_END";
+
+    /**
+     * Result of a single step of batched remote script
+     */
+    public static class RemoteStepResult
+    {
+        public String stepName;
+        // null, if step was not run (an earlier step failed or script timed out); -1 if step was cut short
+        public Integer exitStatus;
+        public String output = "";
+
+        public boolean
+        isSuccess()
+        {
+            return exitStatus != null && exitStatus == 0;
+        }
+    }
+
     /**
      * Connects to the remote host using SSH
      *
@@ -292,9 +328,9 @@ public class SSHUtil
                 "Running command '" + command + "' asynchronously. "
                     + " It doesn't wait for command to complete on remote host.");
             session.execCommand(command);
-            int sleep = 10;
-            System.out.println("Sleep for " + sleep + " seconds for command to kick in.");
-            Thread.sleep(sleep * 1000);
+
+            // Give the command up to 10 seconds to kick in, returning as soon as it is done
+            session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.EOF | ChannelCondition.CLOSED, 10000);
 
         } finally {
             if (session != null) {
@@ -316,8 +352,8 @@ public class SSHUtil
     public static boolean
     executeRemoteSSHCommand(Session session, String command, long maxTimeout) throws Exception
     {
-        StreamReader isReader = null;
-        StreamReader errReader = null;
+        InputStream stdout = null;
+        InputStream stderr = null;
         String errorDataStream = null;
         boolean success = false;
 
@@ -326,19 +362,10 @@ public class SSHUtil
             session.execCommand(command);
 
             /*
-             * Start stream reader for standard output
+             * Gobblers keep draining both streams, so that remote command never blocks on a full channel window
              */
-            isReader = new StreamReader(new BufferedReader(new InputStreamReader(session.getStdout())), "InputStream");
-
-            Thread outThread = new Thread(isReader);
-            outThread.start();
-
-            /*
-             * Start stream reader for error stream
-             */
-            errReader = new StreamReader(new BufferedReader(new InputStreamReader(session.getStderr())), "ErrorStream");
-            Thread errThread = new Thread(errReader);
-            errThread.start();
+            stdout = new StreamGobbler(session.getStdout());
+            stderr = new StreamGobbler(session.getStderr());
 
             /*
              * Wait until command completes or times out
@@ -348,14 +375,12 @@ public class SSHUtil
                 System.out.println("A timeout occured while waiting for data from the " + "server");
             } else {
                 /*
-                 * It is possible that the errReader thread has not completely
-                 * finished saving error data at this point, since
-                 * waitForCondition and errReader are running concurrently.
-                 * Sleep 2 seconds to allow errReader thread extra time to
-                 * finish.
+                 * Channel is at EOF now, hence reading off error stream completes right away. Exit status
+                 * follows the EOF, wait for it rather than for a fixed time
                  */
-                Thread.sleep(2000);
-                errorDataStream = errReader.getDataStream();
+                errorDataStream = getInputStreamString(stderr).toString();
+                session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, 5000);
+
                 if ((errorDataStream == null || errorDataStream.length() == 0)) {
                     /*
                      * Some server implementations do not return an exit status
@@ -383,19 +408,17 @@ public class SSHUtil
                         // ignore this error mesg.
                         success = true;
                     }
-
-                    String output = isReader.getDataStream();
                 }
             }
             if (success) {
                 System.out.println("Successfully executed '" + command + "' command on remote ssh host");
             }
         } finally {
-            if (isReader != null) {
-                isReader.stopThread();
+            if (stdout != null) {
+                stdout.close();
             }
-            if (errReader != null) {
-                errReader.stopThread();
+            if (stderr != null) {
+                stderr.close();
             }
         }
         return success;
@@ -417,6 +440,108 @@ public class SSHUtil
         return executeRemoteSSHCommand(conn, command, SSHCOMMAND_TIMEOUT);
     }
 
+    /**
+     * Executes all the steps (name -> shell command) as a single generated script on the remote host,
+     * in one session. Steps are run in order and script stops at the first failing step, as later
+     * steps depend on the earlier ones.
+     *
+     * @param conn SSH Connection
+     * @param steps Ordered steps, step names must not contain white spaces
+     * @param timeout Timeout in seconds, for the whole script
+     * @return result of each step, in the same order as steps
+     * @throws Exception
+     */
+    public static List<RemoteStepResult>
+    executeRemoteScript(Connection conn, Map<String, String> steps, long timeout) throws Exception
+    {
+        List<RemoteStepResult> stepResults = new ArrayList<RemoteStepResult>();
+        Map<String, RemoteStepResult> stepResultMap = new HashMap<String, RemoteStepResult>();
+
+        StringBuilder script = new StringBuilder();
+        for (String stepName : steps.keySet()) {
+            RemoteStepResult stepResult = new RemoteStepResult();
+            stepResult.stepName = stepName;
+            stepResults.add(stepResult);
+            stepResultMap.put(stepName, stepResult);
+
+            script.append("echo '" + SCRIPT_STEP_BEGIN + " " + stepName + "'\n");
+            script.append("( " + steps.get(stepName) + " ) 2>&1\n");
+            script.append("rc=$?\n");
+            script.append("echo \"" + SCRIPT_STEP_END + " " + stepName + " $rc\"\n");
+            script.append("if [ $rc -ne 0 ]; then exit $rc; fi\n");
+        }
+        script.append("exit 0\n");
+
+        Session session = null;
+        InputStream stdout = null;
+        InputStream stderr = null;
+        try {
+            session = conn.openSession();
+            System.out.println("Running remote script of " + steps.size() + " steps " + steps.keySet()
+                + " with timeout of " + timeout + " seconds");
+
+            // Script is fed through stdin, so that step commands need not be escaped
+            session.execCommand("sh -s");
+            stdout = new StreamGobbler(session.getStdout());
+            stderr = new StreamGobbler(session.getStderr());
+            OutputStream stdin = session.getStdin();
+            stdin.write(script.toString().getBytes("UTF-8"));
+            stdin.close();
+
+            int result = session.waitForCondition(ChannelCondition.EOF, timeout * 1000);
+            boolean timedOut = (result & ChannelCondition.TIMEOUT) != 0;
+            if (timedOut) {
+                /*
+                 * Script is still running (hung step). Close the session, so that reading the output
+                 * gathered so far hits EOF instead of waiting for the script to exit
+                 */
+                System.err.println("Remote script did not complete within " + timeout + " seconds, abandoning it");
+                session.close();
+            }
+
+            // Split the output by step markers
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stdout));
+            RemoteStepResult currentStep = null;
+            StringBuilder stepOutput = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SCRIPT_STEP_BEGIN + " ")) {
+                    currentStep = stepResultMap.get(line.substring(SCRIPT_STEP_BEGIN.length() + 1).trim());
+                    stepOutput.setLength(0);
+                } else if (line.startsWith(SCRIPT_STEP_END + " ") && currentStep != null) {
+                    String[] endFields = line.trim().split(" ");
+                    currentStep.exitStatus = Integer.parseInt(endFields[endFields.length - 1]);
+                    currentStep.output = stepOutput.toString();
+                    currentStep = null;
+                } else {
+                    stepOutput.append(line + "\n");
+                }
+            }
+
+            // Step begun but not ended - it was cut short (timed out / script killed), hence failed
+            if (currentStep != null) {
+                currentStep.exitStatus = -1;
+                currentStep.output = stepOutput.toString() + (timedOut ? "(timed out)\n" : "(did not complete)\n");
+            }
+
+            String errorDataStream = getInputStreamString(stderr).toString();
+            if (errorDataStream.length() != 0) {
+                System.err.println("Error Stream: \n" + errorDataStream);
+            }
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+            if (stdout != null) {
+                stdout.close();
+            }
+            if (stderr != null) {
+                stderr.close();
+            }
+        }
+        return stepResults;
+    }
+
     /**
      * Check if file exists on a remote host
      *
@@ -519,11 +644,6 @@ public class SSHUtil
                 if (waitTillServiceisStarted(conn, service)) {
                     System.out.println("Successfully started the service: " + service);
                     result = true;
-                    /*
-                     * Sleep for few seconds, before exiting out, as right after service is restarted
-                     * it might take sometime to become operational
-                     */
-                    Thread.sleep(5000);
                 } else {
                     System.err.println("Failed to start the service: " + service);
                 }
@@ -547,8 +667,6 @@ public class SSHUtil
         boolean result = false;
         if (conn != null) {
             if (stopService(conn, service)) {
-                // Sleep for couple of seconds before querying & starting for the state of the process
-                Thread.sleep(4000);
                 if (startService(conn, service)) {
                     System.out.println("Successfully restarted the service: " + service);
                     result = true;
@@ -586,61 +704,185 @@ public class SSHUtil
         return isServiceRunning;
     }
 
+    /**
+     * Set the overall deadline (in milliseconds) for a service to reach the expected state
+     */
+    public static void
+    setServiceWaitDeadline(long deadline)
+    {
+        serviceWaitDeadline = deadline;
+    }
+
+    /**
+     * Overall deadline (in milliseconds) for a service to reach the expected state
+     */
+    public static long
+    getServiceWaitDeadline()
+    {
+        return serviceWaitDeadline;
+    }
+
+    /**
+     * Enable/disable streaming of service state changes over a single session, instead of polling
+     */
+    public static void
+    setStreamServiceState(boolean stream)
+    {
+        streamServiceState = stream;
+    }
+
     /**
      * Checks whether the specified service is stopped on the provided host
      */
     public static boolean
     waitTillServiceisStopped(Connection conn, String service) throws Exception
     {
-        boolean isServiceStopped = false;
-        int waitCount = 24;
-        String command = null;
-        Map<String, String> sshResponse = null;
-        String output = null;
-        command = service + " status";
-        while (waitCount != 0) {
-            sshResponse = SSHUtil.getRemoteSSHCmdOutput(conn, command);
-            output = sshResponse.get(SSH_OUTPUT_STREAM);
-            System.out.println("Printing the " + command + " command output");
-            System.out.println(output);
-            if (output != null && (output.toUpperCase().contains(SERVICE_STATE_STOPPED)
-                || output.toUpperCase().contains(SERVICE_STATE_NOT_RUNNING))) {
-                isServiceStopped = true;
-                System.out.println("Service " + service + " is stopped");
-                break;
-            } else {
-                waitCount--;
-                System.out.println("Service " + service + " is not stopped");
-                System.out.println("Sleeping for 10 secs before querying again for the service status");
-                Thread.sleep(10000);
-            }
-        }
-
-        return isServiceStopped;
+        return waitForServiceState(conn, service, false, serviceWaitDeadline);
     }
 
     /**
-     * Checks whether the specified service is stopped on the provided host
+     * Checks whether the specified service is started on the provided host
      */
     public static boolean
     waitTillServiceisStarted(Connection conn, String service) throws Exception
     {
-        boolean isServiceStarted = false;
-        int waitCount = 24;
-        while (waitCount != 0) {
-            if (isServiceRunning(conn, service)) {
-                isServiceStarted = true;
-                System.out.println("Service " + service + " is started");
-                break;
+        return waitForServiceState(conn, service, true, serviceWaitDeadline);
+    }
+
+    /**
+     * Wait till the service reaches expected state (running or stopped), or the deadline
+     * (in milliseconds) expires
+     */
+    public static boolean
+    waitForServiceState(Connection conn, String service, boolean running, long deadline) throws Exception
+    {
+        String expectedState = running ? "started" : "stopped";
+        boolean stateReached = false;
+
+        if (streamServiceState) {
+            Boolean streamedResult = waitForServiceStateStreaming(conn, service, running, deadline);
+            if (streamedResult != null) {
+                stateReached = streamedResult;
             } else {
-                waitCount--;
-                System.out.println("Service " + service + " is not started");
-                System.out.println("Sleeping for 10 secs before querying again for the service status");
-                Thread.sleep(10000);
+                System.out.println("Could not stream state of service " + service + ", polling for it instead");
+                stateReached = waitForServiceStatePolling(conn, service, running, deadline);
+            }
+        } else {
+            stateReached = waitForServiceStatePolling(conn, service, running, deadline);
+        }
+
+        if (stateReached) {
+            System.out.println("Service " + service + " is " + expectedState);
+        } else {
+            System.err.println("Service " + service + " is not " + expectedState + " within " + deadline / 1000 + " secs");
+        }
+        return stateReached;
+    }
+
+    /*
+     * Poll service status with exponential backoff - starting at 200 ms, doubling up to 5 secs
+     */
+    private static boolean
+    waitForServiceStatePolling(Connection conn, String service, boolean running, long deadline) throws Exception
+    {
+        String command = service + " status";
+        long endTime = System.currentTimeMillis() + deadline;
+        long pollInterval = SERVICE_POLL_INITIAL_INTERVAL;
+
+        for (;;) {
+            Map<String, String> sshResponse = SSHUtil.getRemoteSSHCmdOutput(conn, command);
+            if (isServiceInState(sshResponse.get(SSH_OUTPUT_STREAM), running)) {
+                return true;
             }
+
+            long remaining = endTime - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(pollInterval, remaining));
+            pollInterval = Math.min(pollInterval * 2, SERVICE_POLL_MAX_INTERVAL);
         }
+    }
 
-        return isServiceStarted;
+    /*
+     * Run a single remote loop, which prints service status whenever it changes, and read the
+     * states as they arrive. Returns null if the loop could not be run on the host
+     */
+    private static Boolean
+    waitForServiceStateStreaming(Connection conn, String service, boolean running, long deadline)
+    {
+        long endTime = System.currentTimeMillis() + deadline;
+        long loopCount = Math.max(1, deadline / 1000);
+        String command = "last=''; i=0; while [ $i -lt " + loopCount + " ]; do s=$(" + service
+            + " status 2>&1 | tr '\\n' ' '); if [ \"$s\" != \"$last\" ]; then echo \"$s\"; last=\"$s\"; fi; "
+            + "i=$((i+1)); sleep 1; done";
+
+        Session session = null;
+        try {
+            session = conn.openSession();
+            session.execCommand(command);
+            InputStream stdout = session.getStdout();
+            StringBuilder line = new StringBuilder();
+            byte[] buf = new byte[1024];
+
+            for (;;) {
+                long remaining = endTime - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                int condition = session.waitForCondition(
+                    ChannelCondition.STDOUT_DATA | ChannelCondition.EOF | ChannelCondition.CLOSED,
+                    remaining);
+                if ((condition & ChannelCondition.STDOUT_DATA) != 0) {
+                    int len = stdout.read(buf, 0, Math.min(buf.length, Math.max(1, stdout.available())));
+                    for (int i = 0; i < len; i++) {
+                        if (buf[i] == '\n') {
+                            System.out.println("Service " + service + " status: " + line);
+                            if (isServiceInState(line.toString(), running)) {
+                                return true;
+                            }
+                            line.setLength(0);
+                        } else {
+                            line.append((char) buf[i]);
+                        }
+                    }
+                } else if ((condition & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0) {
+                    /*
+                     * Remote loop ended without service reaching expected state. Non-zero exit
+                     * status means the loop itself could not be run on the host
+                     */
+                    session.waitForCondition(ChannelCondition.EXIT_STATUS, 2000);
+                    Integer exitStatus = session.getExitStatus();
+                    return (exitStatus != null && exitStatus != 0) ? null : Boolean.FALSE;
+                } else if ((condition & ChannelCondition.TIMEOUT) != 0) {
+                    return false;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Caught exception while streaming state of service " + service + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    /*
+     * Interpret "<service> status" output
+     */
+    private static boolean
+    isServiceInState(String statusOutput, boolean running)
+    {
+        if (statusOutput == null) {
+            return false;
+        }
+        String state = statusOutput.toUpperCase();
+        if (running) {
+            return !state.contains(SERVICE_STATE_NOT_RUNNING) && state.contains(SERVICE_STATE_RUNNING);
+        }
+        return state.contains(SERVICE_STATE_STOPPED) || state.contains(SERVICE_STATE_NOT_RUNNING);
     }
 
     /**
@@ -56,27 +56,31 @@
 package com.vmware.secprotomgmt;
 
 import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class TestSSLServer {
 
@@ -86,24 +90,11 @@ public class TestSSLServer {
         int port = portNumber;
         InetSocketAddress isa = new InetSocketAddress(name, port);
 
-        Set<Integer> sv = new TreeSet<Integer>();
-        boolean compress = false;
-        for (int v = 0x0300; v <= 0x0303; v++) {
-            ServerHello sh = connect(isa, v, CIPHER_SUITES.keySet());
-            if (sh == null) {
-                continue;
-            }
-            sv.add(sh.protoVersion);
-            if (sh.compression == 1) {
-                compress = true;
-            }
-        }
-
-        ServerHelloSSLv2 sh2 = connectV2(isa);
-
-        if (sh2 != null) {
-            sv.add(0x0200);
-        }
+        /*
+         * Probe all versions (SSLv3 to TLSv1.2 and SSLv2) at the same time, with
+         * connect/read deadlines, instead of one blocking connection per version
+         */
+        Set<Integer> sv = new AsyncProtoScanner().scan(Collections.singletonList(isa)).get(isa).protoVersions;
 
         if (sv.size() == 0) {
             System.out.println("No SSL/TLS server at " + isa);
@@ -199,6 +190,63 @@ public class TestSSLServer {
         return protocolsEnabled;
     } // End of ProtoScanner Method
 
+    /*
+     * Targeted check that exactly the expected protocol versions (SSLv3 to TLSv1.2) are enabled
+     * on the server. Server answers a ClientHello with the highest version it has enabled, not
+     * above the offered one. A version is proven enabled only by offering it and getting it back,
+     * hence every expected version is offered. Versions supposed to be disabled are proven so a
+     * run at a time: offering the highest version of each run of disabled versions must get back
+     * the expected version just below the run, or an alert if there is none. SSLv2 is offered too.
+     * Proving an exact set thus takes about one probe per version (5 for TLSv1.0 to TLSv1.2), and
+     * all of them are sent at the same time through the scanner - a single round trip.
+     * Throws IOException if the server did not answer properly, as nothing can be concluded.
+     */
+    public static boolean SecurityProtoVerifier(AsyncProtoScanner scanner, String hostName, Integer portNumber,
+            Collection<Integer> expectedVersions) throws IOException {
+        TreeSet<Integer> expected = new TreeSet<Integer>(expectedVersions);
+        if (expected.isEmpty() || expected.first() < 0x0300 || expected.last() > 0x0303) {
+            return false;
+        }
+
+        List<Integer> offers = new ArrayList<Integer>();
+        for (int version = 0x0303; version >= 0x0300; version--) {
+            if (expected.contains(version) || version == 0x0303 || expected.contains(version + 1)) {
+                offers.add(version);
+            }
+        }
+        offers.add(0x0200);
+        int[] versions = new int[offers.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = offers.get(i);
+        }
+
+        InetSocketAddress isa = new InetSocketAddress(hostName, portNumber);
+        AsyncProtoScanner.TargetResult result = scanner.scan(Collections.singletonList(isa), versions, null).get(isa);
+        for (int version : versions) {
+            ProbeOutcome outcome = result.outcomes.get(version);
+            if (version == 0x0200) {
+                // SSLv2 is never expected
+                if (outcome == ProbeOutcome.VERSION) {
+                    return false;
+                }
+                continue;
+            }
+            Integer next = expected.floor(version);
+            if (outcome == ProbeOutcome.VERSION) {
+                if (!result.answers.get(version).equals(next)) {
+                    return false;
+                }
+            } else if (outcome == ProbeOutcome.ALERT) {
+                if (next != null) {
+                    return false;
+                }
+            } else {
+                throw new IOException("no answer from " + isa + " to " + versionString(version) + ": " + outcome);
+            }
+        }
+        return true;
+    }
+
     /*
      * Get cipher suites supported by the server. This is done by
      * repeatedly contacting the server, each time removing from our
@@ -315,28 +363,101 @@ public class TestSSLServer {
     }
 
     /*
-     * Connect to the server, send a ClientHello, and decode the
-     * response (ServerHello). On error, null is returned.
+     * Outcome of a single ClientHello probe: server answered with a
+     * protocol version, rejected the handshake with an alert record,
+     * closed/reset the connection or sent an undecodable answer, did
+     * not answer in time, refused the connection, or the host could
+     * not be reached at all (unresolved name, no route). Ordered by
+     * how far the probe got.
      */
-    static ServerHello connect(InetSocketAddress isa, int version, Collection<Integer> cipherSuites) {
-        Socket s = null;
+    enum ProbeOutcome {
+        VERSION, ALERT, RESET, TIMEOUT, REFUSED, UNREACHABLE
+    }
+
+    static class ProbeResult {
+
+        final ProbeOutcome outcome;
+        final ServerHello serverHello;
+        final int version;
+
+        ProbeResult(ProbeOutcome outcome, ServerHello serverHello) {
+            this.outcome = outcome;
+            this.serverHello = serverHello;
+            this.version = (serverHello != null) ? serverHello.protoVersion : -1;
+        }
+    }
+
+    /*
+     * Connect to the server, send a ClientHello, and classify the
+     * response. Both the connect and every read are bounded by a
+     * deadline, so that a half-open service (e.g. one restarting)
+     * cannot block the caller.
+     */
+    static ProbeResult probe(InetSocketAddress isa, int version, Collection<Integer> cipherSuites) {
+        return probe(isa, version, cipherSuites, true);
+    }
+
+    /*
+     * Same as probe(isa, version, cipherSuites), announcing all
+     * CIPHER_SUITES - ClientHello is then taken from the template.
+     */
+    static ProbeResult probe(InetSocketAddress isa, int version) {
+        return probe(isa, version, null, true);
+    }
+
+    /*
+     * Same as probe(isa, version, cipherSuites), with the ServerHello
+     * decoded either just for its version ('versionOnly'), or along
+     * with the server certificate. Null 'cipherSuites' stands for all
+     * CIPHER_SUITES.
+     */
+    static ProbeResult probe(InetSocketAddress isa, int version, Collection<Integer> cipherSuites,
+            boolean versionOnly) {
+        Socket s = new Socket();
         try {
-            s = new Socket();
             try {
-                s.connect(isa);
+                s.connect(isa, (int) AsyncProtoScanner.DEFAULT_CONNECT_TIMEOUT_MS);
+            } catch (SocketTimeoutException ste) {
+                System.err.println("could not connect to " + isa + ": connect timed out");
+                return new ProbeResult(ProbeOutcome.TIMEOUT, null);
+            } catch (ConnectException ce) {
+                System.err.println("could not connect to " + isa + ": " + ce.toString());
+                return new ProbeResult(ProbeOutcome.REFUSED, null);
             } catch (IOException ioe) {
                 System.err.println("could not connect to " + isa + ": " + ioe.toString());
-                return null;
+                return new ProbeResult(ProbeOutcome.UNREACHABLE, null);
             }
-            byte[] ch = makeClientHello(version, cipherSuites);
+            s.setSoTimeout((int) AsyncProtoScanner.DEFAULT_READ_TIMEOUT_MS);
+            byte[] ch = (cipherSuites != null) ? makeClientHello(version, cipherSuites) : makeClientHello(version);
             OutputRecord orec = new OutputRecord(s.getOutputStream());
             orec.setType(HANDSHAKE);
             orec.setVersion(version);
             orec.write(ch);
             orec.flush();
-            return new ServerHello(s.getInputStream());
+
+            /*
+             * Peek at the first record type: an alert straight away
+             * means the server rejected the handshake.
+             */
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            in.mark(1);
+            int recordType = in.read();
+            if (recordType < 0) {
+                return new ProbeResult(ProbeOutcome.RESET, null);
+            } else if (recordType == ALERT) {
+                return new ProbeResult(ProbeOutcome.ALERT, null);
+            }
+            in.reset();
+            return new ProbeResult(ProbeOutcome.VERSION, new ServerHello(in, versionOnly));
+        } catch (SocketTimeoutException ste) {
+            return new ProbeResult(ProbeOutcome.TIMEOUT, null);
         } catch (IOException ioe) {
-            // ignored
+            /*
+             * Closed, reset, or answered with something which is not a
+             * ServerHello: only an alert record (checked above) counts
+             * as the server rejecting the version.
+             */
+            return new ProbeResult(ProbeOutcome.RESET, null);
         } finally {
             try {
                 s.close();
@@ -344,7 +465,41 @@ public class TestSSLServer {
                 // ignored
             }
         }
-        return null;
+    }
+
+    // Poll interval (in milliseconds) while waiting for a port to serve TLS: starts at 200 ms, doubling up to 5 secs
+    static final long READY_POLL_INITIAL_INTERVAL = 200;
+    static final long READY_POLL_MAX_INTERVAL = 5000;
+
+    /*
+     * Wait till the server on the port answers a ClientHello, either
+     * with a ServerHello or an alert - i.e. its TLS stack is serving,
+     * or the deadline (in milliseconds) passes. Meant to be used
+     * right after a service restart. Returns the last outcome.
+     */
+    static ProbeOutcome awaitTlsReady(InetSocketAddress isa, long deadline) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + deadline;
+        long pollInterval = READY_POLL_INITIAL_INTERVAL;
+        for (;;) {
+            ProbeOutcome outcome = probe(isa, 0x0303).outcome;
+            if (outcome == ProbeOutcome.VERSION || outcome == ProbeOutcome.ALERT) {
+                return outcome;
+            }
+            long remaining = endTime - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return outcome;
+            }
+            Thread.sleep(Math.min(pollInterval, remaining));
+            pollInterval = Math.min(pollInterval * 2, READY_POLL_MAX_INTERVAL);
+        }
+    }
+
+    /*
+     * Connect to the server, send a ClientHello, and decode the
+     * response (ServerHello). On error, null is returned.
+     */
+    static ServerHello connect(InetSocketAddress isa, int version, Collection<Integer> cipherSuites) {
+        return probe(isa, version, cipherSuites, false).serverHello;
     }
 
     /*
@@ -356,11 +511,12 @@ public class TestSSLServer {
         try {
             s = new Socket();
             try {
-                s.connect(isa);
+                s.connect(isa, (int) AsyncProtoScanner.DEFAULT_CONNECT_TIMEOUT_MS);
             } catch (IOException ioe) {
                 System.err.println("could not connect to " + isa + ": " + ioe.toString());
                 return null;
             }
+            s.setSoTimeout((int) AsyncProtoScanner.DEFAULT_READ_TIMEOUT_MS);
             s.getOutputStream().write(SSL2_CLIENT_HELLO);
             return new ServerHelloSSLv2(s.getInputStream());
         } catch (IOException ioe) {
@@ -492,14 +648,23 @@ public class TestSSLServer {
     static class InputRecord extends InputStream {
 
         private InputStream in;
-        private byte[] buffer = new byte[MAX_RECORD_LEN + 5];
+        private byte[] buffer;
         private int ptr, end;
         private int version;
         private int type;
         private int expectedType;
 
         InputRecord(InputStream in) {
+            this(in, new byte[MAX_RECORD_LEN + 5]);
+        }
+
+        /*
+         * Use the given buffer (at least MAX_RECORD_LEN + 5 bytes)
+         * for incoming records, instead of allocating a new one.
+         */
+        InputRecord(InputStream in, byte[] buffer) {
             this.in = in;
+            this.buffer = buffer;
             ptr = 0;
             end = 0;
         }
@@ -552,7 +717,46 @@ public class TestSSLServer {
         }
     }
 
-    private static final SecureRandom RNG = new SecureRandom();
+    /*
+     * Offset of the client random in the ClientHello message: after
+     * the message header (4 bytes) and the version (2 bytes).
+     */
+    private static final int CLIENT_RANDOM_OFFSET = 6;
+
+    /*
+     * ClientHello templates announcing all CIPHER_SUITES, one per
+     * version from SSLv3 (0x0300) to TLSv1.2 (0x0303). Built once,
+     * on first use (after CIPHER_SUITES is filled in).
+     */
+    private static class ClientHelloTemplates {
+
+        static final byte[][] TEMPLATES = new byte[4][];
+
+        static {
+            for (int i = 0; i < TEMPLATES.length; i++) {
+                try {
+                    TEMPLATES[i] = makeClientHello0(0x0300 + i, CIPHER_SUITES.keySet());
+                } catch (IOException ioe) {
+                    throw new RuntimeException(ioe);
+                }
+            }
+        }
+    }
+
+    /*
+     * Build a ClientHello message, with the specified maximum
+     * supported version, announcing all CIPHER_SUITES. The message
+     * is copied from the template of the version; only the client
+     * random is filled in.
+     */
+    static byte[] makeClientHello(int version) {
+        if (version < 0x0300 || version > 0x0303) {
+            return makeClientHello(version, CIPHER_SUITES.keySet());
+        }
+        byte[] msg = ClientHelloTemplates.TEMPLATES[version - 0x0300].clone();
+        fillClientRandom(msg);
+        return msg;
+    }
 
     /*
      * Build a ClientHello message, with the specified maximum
@@ -560,12 +764,29 @@ public class TestSSLServer {
      */
     static byte[] makeClientHello(int version, Collection<Integer> cipherSuites) {
         try {
-            return makeClientHello0(version, cipherSuites);
+            byte[] msg = makeClientHello0(version, cipherSuites);
+            fillClientRandom(msg);
+            return msg;
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
     }
 
+    /*
+     * The client random begins with the current time (seconds
+     * since 1970/01/01 00:00:00 UTC), followed by 28 random
+     * bytes. It only needs to be unpredictable enough for a
+     * probe, hence drawn from the (non-blocking) per-thread
+     * generator rather than SecureRandom.
+     */
+    private static void fillClientRandom(byte[] msg) {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        enc32be((int) (System.currentTimeMillis() / 1000), msg, CLIENT_RANDOM_OFFSET);
+        for (int i = 4; i < 32; i += 4) {
+            enc32be(rng.nextInt(), msg, CLIENT_RANDOM_OFFSET + i);
+        }
+    }
+
     static byte[] makeClientHello0(int version, Collection<Integer> cipherSuites) throws IOException {
         ByteArrayOutputStream b = new ByteArrayOutputStream();
 
@@ -587,15 +808,10 @@ public class TestSSLServer {
         b.write(version);
 
         /*
-         * The client random has length 32 bytes, but begins with
-         * the client's notion of the current time, over 32 bits
-         * (seconds since 1970/01/01 00:00:00 UTC, not counting
-         * leap seconds).
+         * The client random has length 32 bytes. It is left blank
+         * here, and filled in by makeClientHello().
          */
-        byte[] rand = new byte[32];
-        RNG.nextBytes(rand);
-        enc32be((int) (System.currentTimeMillis() / 1000), rand, 0);
-        b.write(rand);
+        b.write(new byte[32]);
 
         /*
          * We send an empty session ID.
@@ -661,6 +877,30 @@ public class TestSSLServer {
         }
     }
 
+    /*
+     * Per-thread scratch buffers of the version-only ServerHello
+     * decoding, so that scanning many ports does not allocate a
+     * record buffer for every handshake.
+     */
+    private static final ThreadLocal<byte[]> RECORD_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[MAX_RECORD_LEN + 5];
+        }
+    };
+    private static final ThreadLocal<byte[]> HEADER_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4];
+        }
+    };
+    private static final ThreadLocal<byte[]> MESSAGE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
     /*
      * This class decodes a ServerHello message from the server. The
      * fields we are interested in are stored in the
@@ -677,7 +917,17 @@ public class TestSSLServer {
         String serverCertHash;
 
         ServerHello(InputStream in) throws IOException {
-            InputRecord rec = new InputRecord(in);
+            this(in, false);
+        }
+
+        /*
+         * With 'versionOnly', decoding stops right after the ServerHello
+         * message: the server certificate is neither read nor hashed.
+         * Records and the message are then read into the per-thread
+         * scratch buffers, instead of freshly allocated ones.
+         */
+        ServerHello(InputStream in, boolean versionOnly) throws IOException {
+            InputRecord rec = versionOnly ? new InputRecord(in, RECORD_BUFFER.get()) : new InputRecord(in);
             rec.setExpectedType(HANDSHAKE);
 
             /*
@@ -685,24 +935,28 @@ public class TestSSLServer {
              * First byte should be 2 ("ServerHello"), then
              * comes the message size (over 3 bytes).
              */
-            byte[] buf = new byte[4];
+            byte[] buf = versionOnly ? HEADER_BUFFER.get() : new byte[4];
             readFully(rec, buf);
             recordVersion = rec.getVersion();
             if (buf[0] != 2) {
                 throw new IOException("unexpected handshake" + " message type: " + (buf[0] & 0xFF));
             }
-            buf = new byte[dec24be(buf, 1)];
+            int len = dec24be(buf, 1);
+            buf = versionOnly ? MESSAGE_BUFFER.get() : null;
+            if (buf == null || buf.length < len) {
+                buf = new byte[len];
+            }
 
             /*
              * Read the complete message in RAM.
              */
-            readFully(rec, buf);
+            readFully(rec, buf, 0, len);
             int ptr = 0;
 
             /*
              * The protocol version which we will use.
              */
-            if (ptr + 2 > buf.length) {
+            if (ptr + 2 > len) {
                 throw new IOException("invalid ServerHello");
             }
             protoVersion = dec16be(buf, 0);
@@ -712,7 +966,7 @@ public class TestSSLServer {
              * The server random begins with the server's notion
              * of the current time.
              */
-            if (ptr + 32 > buf.length) {
+            if (ptr + 32 > len) {
                 throw new IOException("invalid ServerHello");
             }
             serverTime = 1000L * (dec32be(buf, ptr) & 0xFFFFFFFFL);
@@ -721,7 +975,7 @@ public class TestSSLServer {
             /*
              * We skip the session ID.
              */
-            if (ptr + 1 > buf.length) {
+            if (ptr + 1 > len) {
                 throw new IOException("invalid ServerHello");
             }
             ptr += 1 + (buf[ptr] & 0xFF);
@@ -729,7 +983,7 @@ public class TestSSLServer {
             /*
              * The cipher suite and compression follow.
              */
-            if (ptr + 3 > buf.length) {
+            if (ptr + 3 > len) {
                 throw new IOException("invalid ServerHello");
             }
             cipherSuite = dec16be(buf, ptr);
@@ -739,6 +993,9 @@ public class TestSSLServer {
              * The ServerHello could include some extensions
              * here, which we ignore.
              */
+            if (versionOnly) {
+                return;
+            }
 
             /*
              * We now read a few extra messages, until we
@@ -801,7 +1058,7 @@ public class TestSSLServer {
      * not support that, instead of stalling for more data from the
      * client.
      */
-    private static final byte[] SSL2_CLIENT_HELLO = { (byte) 0x80, (byte) 0x2E, // header (record length)
+    static final byte[] SSL2_CLIENT_HELLO = { (byte) 0x80, (byte) 0x2E, // header (record length)
         (byte) 0x01, // message type (CLIENT HELLO)
         (byte) 0x00, (byte) 0x02, // version (0x0002)
         (byte) 0x00, (byte) 0x15, // cipher specs list length
@@ -0,0 +1,86 @@
+/**
+ * Unit tests for AsyncProtoScanner - outcome of the probes of targets which do not
+ * complete a handshake.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AsyncProtoScannerTest
+{
+    @Test(timeout = 30000)
+    public void
+    refusedConnection() throws Exception
+    {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        InetSocketAddress isa = new InetSocketAddress("127.0.0.1", port);
+        AsyncProtoScanner.TargetResult targetResult =
+            new AsyncProtoScanner().scan(Collections.singletonList(isa)).get(isa);
+        assertTrue(targetResult.protoVersions.isEmpty());
+        assertEquals(5, targetResult.outcomes.size());
+        assertEquals(TestSSLServer.ProbeOutcome.REFUSED, targetResult.getOutcome());
+    }
+
+    @Test(timeout = 30000)
+    public void
+    unresolvedAddress() throws Exception
+    {
+        InetSocketAddress isa = InetSocketAddress.createUnresolved("esxi.invalid", 443);
+        AsyncProtoScanner.TargetResult targetResult =
+            new AsyncProtoScanner().scan(Collections.singletonList(isa)).get(isa);
+        assertTrue(targetResult.protoVersions.isEmpty());
+        assertEquals(TestSSLServer.ProbeOutcome.UNREACHABLE, targetResult.getOutcome());
+    }
+
+    @Test
+    public void
+    targetOutcomeIsFurthestProbeOutcome()
+    {
+        AsyncProtoScanner.TargetResult targetResult = new AsyncProtoScanner.TargetResult();
+        assertNull(targetResult.getOutcome());
+
+        targetResult.outcomes.put(0x0200, TestSSLServer.ProbeOutcome.RESET);
+        targetResult.outcomes.put(0x0300, TestSSLServer.ProbeOutcome.TIMEOUT);
+        assertEquals(TestSSLServer.ProbeOutcome.RESET, targetResult.getOutcome());
+
+        targetResult.outcomes.put(0x0303, TestSSLServer.ProbeOutcome.ALERT);
+        assertEquals(TestSSLServer.ProbeOutcome.ALERT, targetResult.getOutcome());
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Unit tests for ClusterWaveScheduler - global and per cluster caps, round robin
+ * across clusters and back pressure on the submitter.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ClusterWaveSchedulerTest
+{
+    /*
+     * Remembers the hosts let in. Hosts are completed by the test itself
+     */
+    private static class RecordingDispatcher implements ClusterWaveScheduler.Dispatcher<String>
+    {
+        final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void
+        dispatch(String host)
+        {
+            dispatched.add(host);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void
+    globalCapLimitsHostsInFlight() throws Exception
+    {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        ClusterWaveScheduler<String> scheduler = new ClusterWaveScheduler<String>(2, 1, 100, dispatcher);
+        scheduler.submit("c1", "h1");
+        scheduler.submit("c2", "h2");
+        scheduler.submit("c3", "h3");
+        scheduler.allSubmitted();
+        assertEquals(Arrays.asList("h1", "h2"), dispatcher.dispatched);
+
+        scheduler.completed("c1", "h1");
+        assertEquals(Arrays.asList("h1", "h2", "h3"), dispatcher.dispatched);
+
+        scheduler.completed("c2", "h2");
+        scheduler.completed("c3", "h3");
+        scheduler.awaitCompletion();
+    }
+
+    @Test(timeout = 10000)
+    public void
+    perClusterCapLimitsHostsOfCluster() throws Exception
+    {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        ClusterWaveScheduler<String> scheduler = new ClusterWaveScheduler<String>(10, 2, 100, dispatcher);
+        scheduler.submit("c1", "h1");
+        scheduler.submit("c1", "h2");
+        scheduler.submit("c1", "h3");
+        scheduler.submit("c2", "h4");
+        assertEquals(Arrays.asList("h1", "h2", "h4"), dispatcher.dispatched);
+
+        scheduler.completed("c2", "h4");
+        assertEquals(3, dispatcher.dispatched.size());
+
+        scheduler.completed("c1", "h2");
+        assertEquals(Arrays.asList("h1", "h2", "h4", "h3"), dispatcher.dispatched);
+    }
+
+    @Test(timeout = 10000)
+    public void
+    clustersAreServedRoundRobin() throws Exception
+    {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        ClusterWaveScheduler<String> scheduler = new ClusterWaveScheduler<String>(1, 1, 100, dispatcher);
+        scheduler.submit("c1", "a1");
+        scheduler.submit("c1", "a2");
+        scheduler.submit("c1", "a3");
+        scheduler.submit("c2", "b1");
+        scheduler.submit("c2", "b2");
+        scheduler.submit("c3", "x1");
+        scheduler.allSubmitted();
+
+        for (int i = 0; i < 6; ++i) {
+            String host = dispatcher.dispatched.get(i);
+            scheduler.completed(host.startsWith("a") ? "c1" : host.startsWith("b") ? "c2" : "c3", host);
+        }
+        scheduler.awaitCompletion();
+
+        // a1 is let in as soon as it is submitted, after which clusters take turns
+        assertEquals(Arrays.asList("a1", "a2", "b1", "x1", "a3", "b2"), dispatcher.dispatched);
+    }
+
+    @Test(timeout = 10000)
+    public void
+    failedDispatchCountsAsCompleted() throws Exception
+    {
+        final List<String> dispatched = new ArrayList<String>();
+        ClusterWaveScheduler<String> scheduler = new ClusterWaveScheduler<String>(1, 1, 100,
+            new ClusterWaveScheduler.Dispatcher<String>() {
+                @Override
+                public void
+                dispatch(String host) throws Exception
+                {
+                    dispatched.add(host);
+                    throw new Exception("no free worker");
+                }
+            });
+        scheduler.submit("c1", "h1");
+        scheduler.submit("c1", "h2");
+        scheduler.allSubmitted();
+        scheduler.awaitCompletion();
+        assertEquals(Arrays.asList("h1", "h2"), dispatched);
+    }
+
+    @Test(timeout = 10000)
+    public void
+    submitBlocksWhileTooManyHostsWait() throws Exception
+    {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        final ClusterWaveScheduler<String> scheduler = new ClusterWaveScheduler<String>(1, 1, 1, dispatcher);
+        scheduler.submit("c1", "h1");
+        scheduler.submit("c1", "h2");
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread() {
+            @Override
+            public void
+            run()
+            {
+                try {
+                    scheduler.submit("c1", "h3");
+                    submitted.countDown();
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+        };
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        scheduler.completed("c1", "h1");
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("h1", "h2"), dispatcher.dispatched);
+        submitter.join();
+    }
+}
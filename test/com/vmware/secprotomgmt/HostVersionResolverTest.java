@@ -0,0 +1,149 @@
+/**
+ * Unit tests for HostVersionResolver - parsing of the version command's output,
+ * and loading of the version cache file.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.secprotomgmt.HostVersionResolver.HostVersion;
+
+public class HostVersionResolverTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void
+    parseVersionOutput()
+    {
+        HostVersion hostVersion = HostVersionResolver.parseVersionOutput(
+            "   Product: VMware ESXi\n   Version: 5.5.0\n   Build: Releasebuild-3248547\n   Update: 3\n");
+        assertEquals("5.5.0", hostVersion.version);
+        assertEquals(Integer.valueOf(3248547), hostVersion.build);
+        assertEquals(Integer.valueOf(3), hostVersion.update);
+    }
+
+    @Test
+    public void
+    parseVersionOutputWithCarriageReturns()
+    {
+        HostVersion hostVersion = HostVersionResolver.parseVersionOutput(
+            "Product: VMware ESXi\r\nVersion: 5.1.0\r\nBuild: 799733\r\nUpdate: 0\r\n");
+        assertEquals("5.1.0", hostVersion.version);
+        assertEquals(Integer.valueOf(799733), hostVersion.build);
+        assertEquals(Integer.valueOf(0), hostVersion.update);
+    }
+
+    @Test
+    public void
+    parseVersionOutputWithoutUpdateOrBuild()
+    {
+        HostVersion hostVersion = HostVersionResolver.parseVersionOutput("Version: 5.0.0\nBuild: unknown\n");
+        assertEquals("5.0.0", hostVersion.version);
+        assertNull(hostVersion.build);
+        assertNull(hostVersion.update);
+    }
+
+    @Test
+    public void
+    parseVersionOutputWithoutVersion()
+    {
+        assertNull(HostVersionResolver.parseVersionOutput(null));
+        assertNull(HostVersionResolver.parseVersionOutput(""));
+        assertNull(HostVersionResolver.parseVersionOutput("esxcli: command not found\n"));
+    }
+
+    @Test
+    public void
+    cacheFileIsLoaded() throws Exception
+    {
+        File cacheFile = tempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(("uuid-1\t3248547\t5.5.0\t3\n"
+                + "uuid-2\t1331820\t5.5.0\tnull\n"
+                + "uuid-3\t799733\n"
+                + "uuid-4\tReleasebuild-799733\t5.1.0\t1\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        HostVersionResolver resolver = HostVersionResolver.open(cacheFile);
+        HostVersion hostVersion = resolver.getCached("uuid-1", 3248547);
+        assertEquals("5.5.0", hostVersion.version);
+        assertEquals(Integer.valueOf(3), hostVersion.update);
+        assertEquals(Integer.valueOf(1), resolver.getCached("uuid-4", 799733).update);
+
+        // Other build of the same host, entry without update level and incomplete entry
+        assertNull(resolver.getCached("uuid-1", 3029944));
+        assertNull(resolver.getCached("uuid-2", 1331820));
+        assertNull(resolver.getCached("uuid-3", 799733));
+        assertNull(resolver.getCached(null, 3248547));
+        resolver.close();
+    }
+
+    @Test
+    public void
+    cachedVersionIsLoadedOnReopen() throws Exception
+    {
+        File cacheFile = new File(tempFolder.getRoot(), HostVersionResolver.DEFAULT_CACHE_FILE);
+        HostVersionResolver resolver = HostVersionResolver.open(cacheFile);
+        resolver.putCached("uuid-1", new HostVersion("5.5.0", 2, 2068190));
+        resolver.putCached("uuid-1", new HostVersion("5.5.0", 2, 2068190));
+        resolver.putCached(null, new HostVersion("5.5.0", 2, 2068190));
+        resolver.close();
+
+        resolver = HostVersionResolver.open(cacheFile);
+        HostVersion hostVersion = resolver.getCached("uuid-1", 2068190);
+        assertEquals("5.5.0", hostVersion.version);
+        assertEquals(Integer.valueOf(2), hostVersion.update);
+        resolver.close();
+
+        // Same entry is not appended twice
+        assertEquals("uuid-1\t2068190\t5.5.0\t2\n".length(), cacheFile.length());
+    }
+
+    @Test
+    public void
+    unresolvedWithoutInventoryOrSSH() throws Exception
+    {
+        HostVersionResolver resolver = HostVersionResolver.open(tempFolder.newFile());
+        assertNull(resolver.resolve(null, null, false));
+        resolver.close();
+    }
+}
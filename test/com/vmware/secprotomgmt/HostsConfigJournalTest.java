@@ -0,0 +1,224 @@
+/**
+ * Unit tests for HostsConfigJournal - replay of an existing journal on resume,
+ * and parsing of the protocol lists recorded in it.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostsConfigJournalTest
+{
+    private static final String OPERATION = "disablessl";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void
+    replayMarksHostDone() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.record("host1", null, HostsConfigJournal.HOST_STARTED, null);
+        journal.record("host1", 902, HostsConfigJournal.PORT_VERIFIED, "[SSLv3, TLSv1.0]|[TLSv1.0]");
+        journal.record("host1", null, HostsConfigJournal.HOST_DONE, null);
+        journal.record("host2", null, HostsConfigJournal.HOST_STARTED, null);
+        journal.close();
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertTrue(journal.isHostDone("host1"));
+        assertFalse(journal.isHostDone("host2"));
+        assertFalse(journal.isHostDone("host3"));
+        journal.close();
+    }
+
+    @Test
+    public void
+    replayKeepsVerifiedPortsInOrder() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.record("host1", 5989, HostsConfigJournal.PORT_VERIFIED, "[SSLv3, TLSv1.0]|[TLSv1.0]");
+        journal.record("host1", 443, HostsConfigJournal.PORT_VERIFIED, "[SSLv3]|[]");
+        journal.record("host1", 902, HostsConfigJournal.PORT_UPDATED, null);
+        journal.close();
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        Map<Integer, String[]> verifiedPorts = journal.getVerifiedPorts("host1");
+        assertEquals(Arrays.asList(5989, 443), Arrays.asList(verifiedPorts.keySet().toArray()));
+        assertArrayEquals(new String[] { "[SSLv3, TLSv1.0]", "[TLSv1.0]" }, verifiedPorts.get(5989));
+        assertArrayEquals(new String[] { "[SSLv3]", "[]" }, verifiedPorts.get(443));
+        assertTrue(journal.getVerifiedPorts("host2").isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void
+    restoredPortAndFailureUndoProgress() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.record("host1", 443, HostsConfigJournal.PORT_VERIFIED, "[SSLv3]|[]");
+        journal.record("host1", 902, HostsConfigJournal.PORT_VERIFIED, "[SSLv3]|[]");
+        journal.record("host1", null, HostsConfigJournal.HOST_DONE, null);
+        journal.record("host1", 902, HostsConfigJournal.PORT_RESTORED, null);
+        journal.record("host2", null, HostsConfigJournal.HOST_DONE, null);
+        journal.record("host2", null, HostsConfigJournal.HOST_FAILED, "SSH connection lost");
+        journal.close();
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertFalse(journal.isHostDone("host1"));
+        assertEquals(Arrays.asList(443), Arrays.asList(journal.getVerifiedPorts("host1").keySet().toArray()));
+        assertFalse(journal.isHostDone("host2"));
+        journal.close();
+    }
+
+    @Test
+    public void
+    replaySkipsOtherOperationAndIncompleteLine() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, "enablessl", false);
+        journal.record("host1", null, HostsConfigJournal.HOST_DONE, null);
+        journal.close();
+
+        // Last line of an interrupted run, cut short before all its fields were written
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(("1\t" + OPERATION + "\thost2\t-\tHOST_DO").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertFalse(journal.isHostDone("host1"));
+        assertFalse(journal.isHostDone("host2"));
+        journal.close();
+    }
+
+    @Test
+    public void
+    detailSeparatorsAreEscaped() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.record("host1", null, HostsConfigJournal.HOST_FAILED, "line one\nline\ttwo");
+        journal.record("host1", null, HostsConfigJournal.HOST_DONE, null);
+        journal.close();
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertTrue(journal.isHostDone("host1"));
+        journal.close();
+    }
+
+    @Test
+    public void
+    openWithoutResumeKeepsExistingJournal() throws Exception
+    {
+        File file = new File(tempFolder.getRoot(), HostsConfigJournal.DEFAULT_JOURNAL_FILE);
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.record("host1", null, HostsConfigJournal.HOST_DONE, null);
+        journal.close();
+        long journalLength = file.length();
+
+        // Twice, within the same second
+        for (int i = 0; i < 2; ++i) {
+            journal = HostsConfigJournal.open(file, OPERATION, false);
+            journal.record("host2", null, HostsConfigJournal.HOST_DONE, null);
+            journal.close();
+        }
+
+        journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertFalse(journal.isHostDone("host1"));
+        assertTrue(journal.isHostDone("host2"));
+        journal.close();
+
+        File[] keptFiles = tempFolder.getRoot().listFiles(new FilenameFilter() {
+            @Override
+            public boolean
+            accept(File dir, String name)
+            {
+                return name.startsWith(HostsConfigJournal.DEFAULT_JOURNAL_FILE + ".");
+            }
+        });
+        assertEquals(2, keptFiles.length);
+        Arrays.sort(keptFiles);
+        assertEquals(journalLength, keptFiles[0].length());
+
+        journal = HostsConfigJournal.open(keptFiles[0], OPERATION, true);
+        assertTrue(journal.isHostDone("host1"));
+        journal.close();
+    }
+
+    @Test
+    public void
+    openWithoutResumeOverEmptyJournal() throws Exception
+    {
+        File file = tempFolder.newFile();
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, false);
+        journal.close();
+        assertEquals(1, tempFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void
+    resumeWithoutJournalFile() throws IOException
+    {
+        File file = new File(tempFolder.getRoot(), HostsConfigJournal.DEFAULT_JOURNAL_FILE);
+        HostsConfigJournal journal = HostsConfigJournal.open(file, OPERATION, true);
+        assertFalse(journal.isHostDone("host1"));
+        journal.close();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void
+    parseProtoList()
+    {
+        assertEquals(Arrays.asList("SSLv3", "TLSv1.0", "TLSv1.1"),
+            HostsConfigJournal.parseProtoList("[SSLv3, TLSv1.0,TLSv1.1]"));
+        assertEquals(Arrays.asList("TLSv1.2"), HostsConfigJournal.parseProtoList(" [ TLSv1.2 ] "));
+        assertTrue(HostsConfigJournal.parseProtoList("[]").isEmpty());
+        assertTrue(HostsConfigJournal.parseProtoList("  ").isEmpty());
+    }
+}
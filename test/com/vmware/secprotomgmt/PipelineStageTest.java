@@ -0,0 +1,162 @@
+/**
+ * Unit tests for PipelineStage - concurrency and queue capacity of a stage.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PipelineStageTest
+{
+    /*
+     * Task which holds its slot till the gate is opened
+     */
+    private static class GatedTask implements Runnable
+    {
+        final CountDownLatch gate;
+        final AtomicInteger running;
+        final AtomicInteger maxRunning;
+        final AtomicInteger doneCount;
+
+        GatedTask(CountDownLatch gate, AtomicInteger running, AtomicInteger maxRunning, AtomicInteger doneCount)
+        {
+            this.gate = gate;
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.doneCount = doneCount;
+        }
+
+        @Override
+        public void
+        run()
+        {
+            int nowRunning = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+            }
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                // ignored
+            } finally {
+                running.decrementAndGet();
+                doneCount.incrementAndGet();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void
+    submitBlocksWhenStageIsFull() throws Exception
+    {
+        final PipelineStage stage = new PipelineStage("test", 2, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger doneCount = new AtomicInteger();
+        final GatedTask task = new GatedTask(gate, running, maxRunning, doneCount);
+
+        // 2 running + 1 waiting fit in the stage
+        stage.submit(task);
+        stage.submit(task);
+        stage.submit(task);
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread() {
+            @Override
+            public void
+            run()
+            {
+                try {
+                    stage.submit(task);
+                    submitted.countDown();
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+        };
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        submitter.join();
+        stage.shutdownAndWait();
+
+        assertEquals(4, doneCount.get());
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test(timeout = 10000)
+    public void
+    failingTaskReleasesItsSlot() throws Exception
+    {
+        PipelineStage stage = new PipelineStage("test", 1, 0);
+        final AtomicInteger runCount = new AtomicInteger();
+        for (int i = 0; i < 3; ++i) {
+            stage.submit(new Runnable() {
+                @Override
+                public void
+                run()
+                {
+                    runCount.incrementAndGet();
+                    throw new IllegalStateException("task failed");
+                }
+            });
+        }
+        stage.shutdownAndWait();
+        assertEquals(3, runCount.get());
+    }
+
+    @Test(timeout = 10000)
+    public void
+    nonPositiveSizesAreRaisedToMinimum() throws Exception
+    {
+        PipelineStage stage = new PipelineStage("test", 0, -1);
+        final AtomicInteger runCount = new AtomicInteger();
+        stage.submit(new Runnable() {
+            @Override
+            public void
+            run()
+            {
+                runCount.incrementAndGet();
+            }
+        });
+        stage.shutdownAndWait();
+        assertEquals(1, runCount.get());
+        assertEquals("test", stage.getName());
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Unit tests for SSHConnectionPool slot accounting, which can be checked without
+ * an SSH server: slots reserved for connections that could not be established.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import ch.ethz.ssh2.Connection;
+
+public class SSHConnectionPoolTest
+{
+    // Reserved top level domain, never resolves
+    private static final String UNKNOWN_HOST = "esxi.invalid";
+
+    @Test(timeout = 30000)
+    public void
+    failedConnectReleasesSlot() throws Exception
+    {
+        SSHConnectionPool pool = new SSHConnectionPool(1, SSHConnectionPool.DEFAULT_IDLE_TIMEOUT_MS, 200);
+
+        // With the only slot leaked by the first attempt, the later ones would time out waiting
+        for (int i = 0; i < 3; ++i) {
+            try {
+                pool.borrowConnection(UNKNOWN_HOST, "root", "dummyPasswd");
+                fail("Connected to " + UNKNOWN_HOST);
+            } catch (Exception e) {
+                assertFalse(String.valueOf(e.getMessage()).startsWith("Timed out waiting"));
+            }
+        }
+    }
+
+    @Test
+    public void
+    connectionNotFromPoolIsClosed()
+    {
+        SSHConnectionPool pool = new SSHConnectionPool(1, SSHConnectionPool.DEFAULT_IDLE_TIMEOUT_MS,
+            SSHConnectionPool.DEFAULT_BORROW_TIMEOUT_MS);
+        pool.releaseConnection(new Connection(UNKNOWN_HOST));
+        pool.invalidateConnection(new Connection(UNKNOWN_HOST));
+        pool.closeIdleConnections();
+    }
+}
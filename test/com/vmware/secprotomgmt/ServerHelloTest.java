@@ -0,0 +1,220 @@
+/**
+ * Unit tests for the ServerHello decoder of TestSSLServer, mainly its version-only
+ * mode used by the protocol scans.
+ *
+ * Copyright (c) 2016
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * @author Gururaja Hegdal (ghegdal@vmware.com)
+ * @version 1.0
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.vmware.secprotomgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ServerHelloTest
+{
+    private static final int TLS_RSA_WITH_AES_128_CBC_SHA = 0x002F;
+
+    /*
+     * ServerHello handshake message: header, version, random, session ID, cipher suite,
+     * compression and (optional) extensions
+     */
+    private static byte[]
+    makeServerHello(int version, int sessionIdLen, int cipherSuite, int extensionsLen)
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(version >>> 8);
+        body.write(version);
+        for (int i = 0; i < 32; ++i) {
+            body.write(0x11);
+        }
+        body.write(sessionIdLen);
+        for (int i = 0; i < sessionIdLen; ++i) {
+            body.write(0x22);
+        }
+        body.write(cipherSuite >>> 8);
+        body.write(cipherSuite);
+        body.write(0);
+        if (extensionsLen > 0) {
+            body.write(extensionsLen >>> 8);
+            body.write(extensionsLen);
+            for (int i = 0; i < extensionsLen; ++i) {
+                body.write(0);
+            }
+        }
+        return makeHandshake(2, body.toByteArray());
+    }
+
+    private static byte[]
+    makeHandshake(int msgType, byte[] body)
+    {
+        ByteArrayOutputStream msg = new ByteArrayOutputStream();
+        msg.write(msgType);
+        msg.write(body.length >>> 16);
+        msg.write(body.length >>> 8);
+        msg.write(body.length);
+        msg.write(body, 0, body.length);
+        return msg.toByteArray();
+    }
+
+    private static byte[]
+    makeRecord(int type, int version, byte[] data, int off, int len)
+    {
+        ByteArrayOutputStream rec = new ByteArrayOutputStream();
+        rec.write(type);
+        rec.write(version >>> 8);
+        rec.write(version);
+        rec.write(len >>> 8);
+        rec.write(len);
+        rec.write(data, off, len);
+        return rec.toByteArray();
+    }
+
+    private static byte[]
+    concat(byte[]... parts)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static TestSSLServer.ServerHello
+    decode(byte[] data, boolean versionOnly) throws IOException
+    {
+        return new TestSSLServer.ServerHello(new ByteArrayInputStream(data), versionOnly);
+    }
+
+    @Test
+    public void
+    versionOnlyDecode() throws Exception
+    {
+        byte[] msg = makeServerHello(0x0302, 32, TLS_RSA_WITH_AES_128_CBC_SHA, 0);
+        TestSSLServer.ServerHello sh = decode(makeRecord(22, 0x0301, msg, 0, msg.length), true);
+        assertEquals(0x0301, sh.recordVersion);
+        assertEquals(0x0302, sh.protoVersion);
+        assertEquals(TLS_RSA_WITH_AES_128_CBC_SHA, sh.cipherSuite);
+        assertEquals(0, sh.compression);
+        assertEquals(0x11111111L * 1000, sh.serverTime);
+        assertNull(sh.serverCertName);
+    }
+
+    @Test
+    public void
+    versionOnlyDecodeStopsAtServerHello() throws Exception
+    {
+        // Nothing follows the ServerHello, a full decode would wait for the certificate
+        byte[] msg = makeServerHello(0x0303, 0, TLS_RSA_WITH_AES_128_CBC_SHA, 6);
+        TestSSLServer.ServerHello sh = decode(makeRecord(22, 0x0303, msg, 0, msg.length), true);
+        assertEquals(0x0303, sh.protoVersion);
+    }
+
+    @Test
+    public void
+    fullDecodeMatchesVersionOnlyDecode() throws Exception
+    {
+        byte[] msg = concat(makeServerHello(0x0301, 16, TLS_RSA_WITH_AES_128_CBC_SHA, 0),
+            makeHandshake(14, new byte[0]));
+        TestSSLServer.ServerHello sh = decode(makeRecord(22, 0x0301, msg, 0, msg.length), false);
+        assertEquals(0x0301, sh.protoVersion);
+        assertEquals(TLS_RSA_WITH_AES_128_CBC_SHA, sh.cipherSuite);
+        assertNull(sh.serverCertName);
+    }
+
+    @Test
+    public void
+    messageSplitAcrossRecords() throws Exception
+    {
+        byte[] msg = makeServerHello(0x0300, 32, TLS_RSA_WITH_AES_128_CBC_SHA, 0);
+        byte[] data = concat(makeRecord(22, 0x0300, msg, 0, 3), makeRecord(22, 0x0300, msg, 3, 20),
+            makeRecord(22, 0x0300, msg, 23, msg.length - 23));
+        TestSSLServer.ServerHello sh = decode(data, true);
+        assertEquals(0x0300, sh.protoVersion);
+        assertEquals(TLS_RSA_WITH_AES_128_CBC_SHA, sh.cipherSuite);
+    }
+
+    @Test
+    public void
+    scratchBuffersAreReused() throws Exception
+    {
+        // Larger message first, then a smaller one on the same thread
+        byte[] msg = makeServerHello(0x0303, 32, 0x003C, 200);
+        assertEquals(0x003C, decode(makeRecord(22, 0x0303, msg, 0, msg.length), true).cipherSuite);
+
+        msg = makeServerHello(0x0301, 0, TLS_RSA_WITH_AES_128_CBC_SHA, 0);
+        TestSSLServer.ServerHello sh = decode(makeRecord(22, 0x0301, msg, 0, msg.length), true);
+        assertEquals(0x0301, sh.protoVersion);
+        assertEquals(TLS_RSA_WITH_AES_128_CBC_SHA, sh.cipherSuite);
+    }
+
+    @Test(expected = IOException.class)
+    public void
+    alertInsteadOfServerHello() throws Exception
+    {
+        // handshake_failure
+        byte[] alert = { 2, 40 };
+        decode(makeRecord(21, 0x0303, alert, 0, alert.length), true);
+    }
+
+    @Test(expected = IOException.class)
+    public void
+    unexpectedRecordType() throws Exception
+    {
+        byte[] data = { 1, 2, 3 };
+        decode(makeRecord(23, 0x0303, data, 0, data.length), true);
+    }
+
+    @Test(expected = IOException.class)
+    public void
+    unexpectedHandshakeMessage() throws Exception
+    {
+        byte[] msg = makeHandshake(14, new byte[0]);
+        decode(makeRecord(22, 0x0303, msg, 0, msg.length), true);
+    }
+
+    @Test(expected = IOException.class)
+    public void
+    truncatedServerHello() throws Exception
+    {
+        // Message claims to be longer than the version and the random actually sent
+        byte[] msg = makeServerHello(0x0303, 0, TLS_RSA_WITH_AES_128_CBC_SHA, 0);
+        decode(makeRecord(22, 0x0303, msg, 0, 20), true);
+    }
+
+    @Test(expected = IOException.class)
+    public void
+    shortServerHello() throws Exception
+    {
+        byte[] msg = makeHandshake(2, new byte[] { 3, 3, 0 });
+        decode(makeRecord(22, 0x0303, msg, 0, msg.length), true);
+    }
+}